@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.bench;
+
+import net.smoofyuniverse.simplex.generator.MandelbrotSet;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public class KernelBenchmark {
+	private static final int SIZE = 700, ROUNDS = 20;
+
+	public static void main(String[] args) {
+		if (!MandelbrotSet.VECTOR_SUPPORTED) {
+			System.out.println("Vector API not available, run with --add-modules jdk.incubator.vector");
+			return;
+		}
+
+		run("Full view", -0.75, 0, 0.005, 1000);
+		run("Seahorse valley", -0.7436, 0.1318, 0.00001, 5000);
+		run("Elephant valley", 0.275, 0.006, 0.000005, 5000);
+	}
+
+	private static void run(String name, double centerX, double centerY, double scale, int maxIterations) {
+		MandelbrotSet set = new MandelbrotSet(ForkJoinPool.commonPool(), 0, centerX - SIZE / 2 * scale, centerY - SIZE / 2 * scale, scale, scale, maxIterations);
+
+		double[] x = new double[SIZE];
+		for (int pX = 0; pX < SIZE; pX++)
+			x[pX] = set.minX + pX * set.xScale;
+
+		int[] scalar = new int[SIZE * SIZE], vector = new int[SIZE * SIZE];
+		long scalarTime = Long.MAX_VALUE, vectorTime = Long.MAX_VALUE;
+
+		for (int round = 0; round < ROUNDS; round++) {
+			set.vectorized = false;
+			scalarTime = Math.min(scalarTime, render(set, x, scalar));
+			set.vectorized = true;
+			vectorTime = Math.min(vectorTime, render(set, x, vector));
+		}
+
+		long iterations = 0;
+		for (int c : scalar)
+			iterations += c;
+
+		System.out.printf("%s: scalar %.1f Miter/s, vector %.1f Miter/s, speedup x%.2f, identical: %b%n", name,
+				iterations * 1e3 / scalarTime, iterations * 1e3 / vectorTime, scalarTime / (double) vectorTime, Arrays.equals(scalar, vector));
+	}
+
+	private static long render(MandelbrotSet set, double[] x, int[] out) {
+		int[] row = new int[SIZE];
+		long start = System.nanoTime();
+		for (int pY = 0; pY < SIZE; pY++) {
+			set.getIterations(x, set.minY + pY * set.yScale, SIZE, row);
+			System.arraycopy(row, 0, out, pY * SIZE, SIZE);
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.bench;
+
+import net.smoofyuniverse.simplex.generator.NoiseGraph;
+import net.smoofyuniverse.simplex.generator.NoiseGraph.Add;
+import net.smoofyuniverse.simplex.generator.NoiseGraph.Node;
+import net.smoofyuniverse.simplex.generator.NoiseGraph.ScaleBias;
+import net.smoofyuniverse.simplex.generator.NoiseGraph.Source;
+import net.smoofyuniverse.simplex.generator.NoiseRenderer;
+import net.smoofyuniverse.simplex.generator.RowSampler;
+import org.spongepowered.noise.module.source.Perlin;
+
+import java.util.concurrent.ForkJoinPool;
+
+// ./gradlew bench -PbenchClass=net.smoofyuniverse.simplex.bench.NoiseGraphBenchmark
+public class NoiseGraphBenchmark {
+	private static final int SIZE = 400, ROUNDS = 10;
+
+	public static void main(String[] args) {
+		Perlin base = NoiseGraph.perlin(2, 8, 0.01);
+		Node terrain = NoiseGraph.terrain(base, 3);
+
+		run("Perlin", new Source(base));
+		run("Terrain", terrain);
+		// The same subgraph used twice is computed once by the compiled graph
+		run("Terrain twice", new Add(terrain, new ScaleBias(terrain, 0.5, 0)));
+		run("Distorted terrain", NoiseGraph.turbulence(terrain, 7, 0.02, 4, 3));
+	}
+
+	private static void run(String name, Node root) {
+		RowSampler walk = NoiseGraph.walk(root), compiled = NoiseGraph.compile(root);
+
+		double[] walked = new double[SIZE * SIZE], fused = new double[SIZE * SIZE];
+		long walkTime = Long.MAX_VALUE, compiledTime = Long.MAX_VALUE;
+
+		for (int round = 0; round < ROUNDS; round++) {
+			walkTime = Math.min(walkTime, render(walk, round, walked));
+			compiledTime = Math.min(compiledTime, render(compiled, round, fused));
+		}
+
+		double difference = 0;
+		for (int p = 0; p < walked.length; p++)
+			difference = Math.max(difference, Math.abs(walked[p] - fused[p]));
+
+		// Whole frames through the same path as the Perlin tab
+		NoiseRenderer renderer = new NoiseRenderer(ForkJoinPool.commonPool(), SIZE, SIZE);
+		long frameTime = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			renderer.render(compiled, round, (x, y, width, height, argb, offset, scanlineStride) -> {});
+			frameTime = Math.min(frameTime, System.nanoTime() - start);
+		}
+
+		System.out.printf("%s: walk %.1f ms, compiled %.1f ms, speedup x%.2f, max difference %.1e, parallel frame %.1f ms%n", name,
+				walkTime / 1e6, compiledTime / 1e6, walkTime / (double) compiledTime, difference, frameTime / 1e6);
+	}
+
+	private static long render(RowSampler sampler, double z, double[] out) {
+		long start = System.nanoTime();
+		for (int y = 0; y < SIZE; y++)
+			sampler.get(0, y, z, 1, SIZE, out, y * SIZE);
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package net.smoofyuniverse.simplex.bench;
+
+import net.smoofyuniverse.common.task.IncrementalListener;
+import net.smoofyuniverse.simplex.generator.EscapeTimeFractal;
+import net.smoofyuniverse.simplex.generator.MandelbrotSet;
+import net.smoofyuniverse.simplex.generator.TileCoordinator;
+import net.smoofyuniverse.simplex.generator.TileCoordinator.Region;
+import net.smoofyuniverse.simplex.generator.TileWorker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Two workers on ephemeral ports of this host, one of them dies during the job: its regions must be leased again to the other one.
+// ./gradlew bench -PbenchClass=net.smoofyuniverse.simplex.bench.TileCoordinatorCheck
+public class TileCoordinatorCheck {
+	private static final int WIDTH = 1000, HEIGHT = 1000, STRIP_HEIGHT = 50;
+	// Strips are split in parts as if they were too large for the workers
+	private static final int MAX_REGION_AREA = WIDTH * STRIP_HEIGHT / 4;
+
+	public static void main(String[] args) throws Exception {
+		MandelbrotSet set = new MandelbrotSet(new ForkJoinPool(2), 0, -2, -1.25, 0.0025, 0.0025, 2000);
+
+		List<Region> regions = new ArrayList<>();
+		for (int y = 0; y < HEIGHT; y += STRIP_HEIGHT)
+			regions.add(new Region(0, y, WIDTH, STRIP_HEIGHT));
+
+		TileCoordinator local = new TileCoordinator(List.of());
+		local.maxRegionArea = MAX_REGION_AREA;
+		int[] expected = render(local, set, regions);
+
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		ServerSocket first = start(loopback), second = start(loopback);
+
+		// The second worker is reached through a relay that cuts the connection in the middle of its third result
+		Relay relay = new Relay(new ServerSocket(0, 50, loopback), new InetSocketAddress(loopback, second.getLocalPort()), 8 + (8 + MAX_REGION_AREA * 4L) * 5 / 2);
+		relay.start();
+
+		TileCoordinator coordinator = new TileCoordinator(List.of(new InetSocketAddress(loopback, first.getLocalPort()), new InetSocketAddress(loopback, relay.server.getLocalPort())));
+		coordinator.maxRegionArea = MAX_REGION_AREA;
+		int[] actual = render(coordinator, set, regions);
+
+		boolean identical = Arrays.equals(expected, actual);
+		System.out.printf("Worker killed: %b, identical to the local render: %b%n", relay.cut, identical);
+		if (!relay.cut || !identical)
+			throw new IllegalStateException("Check failed");
+	}
+
+	private static ServerSocket start(InetAddress address) throws IOException {
+		ServerSocket server = new ServerSocket(0, 50, address);
+		Thread thread = new Thread(() -> {
+			try {
+				new TileWorker(new ForkJoinPool(2)).serve(server);
+			} catch (IOException ignored) {
+			}
+		}, "Tile worker " + server.getLocalPort());
+		thread.setDaemon(true);
+		thread.start();
+		return server;
+	}
+
+	// The consumer must receive the regions whole, even when they were rendered in parts
+	private static int[] render(TileCoordinator coordinator, EscapeTimeFractal set, List<Region> regions) throws IOException {
+		int[] result = new int[WIDTH * HEIGHT];
+		coordinator.render(set, regions, (r, iterations) -> {
+			if (!regions.contains(r))
+				throw new IllegalStateException("Unexpected region: " + r);
+			for (int y = 0; y < r.height(); y++)
+				System.arraycopy(iterations, y * r.width(), result, (r.y() + y) * WIDTH + r.x(), r.width());
+		}, new IncrementalListener() {
+			@Override
+			public boolean isCancelled() {
+				return false;
+			}
+
+			@Override
+			public void increment(long value) {}
+		});
+		return result;
+	}
+
+	// Forwards one connection to a worker and closes both sides once the worker sent the given number of bytes
+	private static class Relay extends Thread {
+		final ServerSocket server;
+		final InetSocketAddress target;
+		final long limit;
+		volatile boolean cut;
+
+		Relay(ServerSocket server, InetSocketAddress target, long limit) {
+			super("Relay " + server.getLocalPort());
+			setDaemon(true);
+			this.server = server;
+			this.target = target;
+			this.limit = limit;
+		}
+
+		@Override
+		public void run() {
+			try (ServerSocket server = this.server; Socket client = server.accept(); Socket worker = new Socket(this.target.getAddress(), this.target.getPort())) {
+				Thread requests = new Thread(() -> {
+					try {
+						transfer(client.getInputStream(), worker.getOutputStream(), Long.MAX_VALUE);
+					} catch (IOException ignored) {
+					}
+				}, getName() + " requests");
+				requests.setDaemon(true);
+				requests.start();
+
+				this.cut = transfer(worker.getInputStream(), client.getOutputStream(), this.limit) == this.limit;
+			} catch (IOException ignored) {
+			}
+		}
+
+		private static long transfer(InputStream in, OutputStream out, long limit) throws IOException {
+			byte[] bytes = new byte[8192];
+			long total = 0;
+			int n;
+			while (total < limit && (n = in.read(bytes, 0, (int) Math.min(bytes.length, limit - total))) != -1) {
+				out.write(bytes, 0, n);
+				total += n;
+			}
+			out.flush();
+			return total;
+		}
+	}
+}
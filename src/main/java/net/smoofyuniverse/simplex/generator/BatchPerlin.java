@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import org.spongepowered.noise.Noise;
+import org.spongepowered.noise.NoiseQuality;
+import org.spongepowered.noise.module.source.Perlin;
+
+import java.util.SplittableRandom;
+
+/**
+ * Evaluates a Perlin module on rows of points, following the same steps as Perlin.get.
+ * The y and z cells of each octave are computed once per row. Within a row, the noise of a cell is the interpolation
+ * along x of two affine functions of x, one per side of the cell. For the octaves whose cells span several points,
+ * these functions are computed once per cell from the gradients of the library, so a point costs a few products.
+ * Finer octaves evaluate the eight corners directly, as Perlin.get does.
+ * Factoring the interpolation changes the rounding, the result is checked against Perlin.get before the evaluator is used.
+ */
+public final class BatchPerlin implements RowSampler {
+	// Largest difference accepted with Perlin.get, the factored interpolation only differs by rounding
+	public static final double TOLERANCE = 1e-12;
+	// Cells are factored when they span at least two points
+	private static final double MAX_FACTORED_STEP = 0.5;
+	private static final int STRIDE = 12;
+
+	private final int seed, octaveCount, curve;
+	private final double frequency, lacunarity, persistence;
+	private final ThreadLocal<double[]> state;
+
+	private BatchPerlin(Perlin perlin) {
+		this.seed = perlin.getSeed();
+		this.octaveCount = perlin.getOctaveCount();
+		this.frequency = perlin.getFrequency();
+		this.lacunarity = perlin.getLacunarity();
+		this.persistence = perlin.getPersistence();
+		NoiseQuality quality = perlin.getNoiseQuality();
+		this.curve = quality == null ? 1 : quality.ordinal();
+
+		int size = this.octaveCount * STRIDE;
+		this.state = ThreadLocal.withInitial(() -> new double[size]);
+	}
+
+	// The settings are copied, later changes of the module are not seen
+	public static RowSampler of(Perlin perlin) {
+		BatchPerlin batch = new BatchPerlin(perlin);
+		return batch.matches(perlin) ? batch : RowSampler.of(perlin);
+	}
+
+	// Compares a few rows spread around the origin with Perlin.get
+	private boolean matches(Perlin perlin) {
+		SplittableRandom random = new SplittableRandom(0);
+		double[] row = new double[64];
+
+		for (int n = 0; n < 16; n++) {
+			double x = random.nextDouble(-1e4, 1e4), y = random.nextDouble(-1e4, 1e4), z = random.nextDouble(-1e4, 1e4);
+			if (n % 2 == 0) {
+				x = Math.floor(x);
+				y = Math.floor(y);
+			}
+
+			double step = 1 << (n % 4);
+			get(x, y, z, step, row.length, row, 0);
+			for (int i = 0; i < row.length; i++) {
+				if (!(Math.abs(row[i] - perlin.get(x + i * step, y, z)) <= TOLERANCE))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void get(double x, double y, double z, double step, int count, double[] out, int offset) {
+		double[] state = this.state.get();
+		int octaves = this.octaveCount;
+
+		// The coordinates of the row in each octave, in the same order of operations as Perlin.get
+		double fy = y * this.frequency, fz = z * this.frequency, cellStep = Math.abs(step * this.frequency);
+		for (int o = 0, b = 0; o < octaves; o++, b += STRIDE) {
+			double ny = makeInt32Range(fy), nz = makeInt32Range(fz);
+			int iy = floor(ny), iz = floor(nz);
+			state[b] = ny;
+			state[b + 1] = nz;
+			state[b + 2] = curve(ny - iy);
+			state[b + 3] = curve(nz - iz);
+			state[b + 4] = iy;
+			state[b + 5] = iz;
+			state[b + 6] = Double.NaN;
+			state[b + 11] = cellStep <= MAX_FACTORED_STEP ? 1 : 0;
+
+			fy *= this.lacunarity;
+			fz *= this.lacunarity;
+			cellStep *= Math.abs(this.lacunarity);
+		}
+
+		for (int i = 0; i < count; i++) {
+			double fx = (x + i * step) * this.frequency, value = 0, persistence = 1;
+
+			for (int o = 0, b = 0; o < octaves; o++, b += STRIDE) {
+				double nx = makeInt32Range(fx);
+				int ix = floor(nx);
+				double xs = curve(nx - ix);
+
+				double signal = state[b + 11] != 0 ? getFactored(state, b, nx, ix, xs, this.seed + o) : getDirect(state, b, nx, ix, xs, this.seed + o);
+				value += signal * persistence;
+
+				fx *= this.lacunarity;
+				persistence *= this.persistence;
+			}
+
+			out[offset + i] = value;
+		}
+	}
+
+	private static double getFactored(double[] state, int b, double nx, int ix, double xs, int seed) {
+		if (state[b + 6] != ix) {
+			if (state[b + 6] == ix - 1) {
+				// Moving to the next cell, the right side becomes the left one
+				state[b + 7] = state[b + 9];
+				state[b + 8] = state[b + 10];
+			} else {
+				factor(state, b, b + 7, ix, seed);
+			}
+			factor(state, b, b + 9, ix + 1, seed);
+			state[b + 6] = ix;
+		}
+
+		return lerp(state[b + 7] * (nx - ix) + state[b + 8], state[b + 9] * (nx - (ix + 1)) + state[b + 10], xs);
+	}
+
+	// The four corners of a side of the cell interpolated along y and z, as a * (nx - ix) + b
+	private static void factor(double[] state, int b, int c, int ix, int seed) {
+		double ny = state[b], nz = state[b + 1], ys = state[b + 2], zs = state[b + 3];
+		int iy0 = (int) state[b + 4], iz0 = (int) state[b + 5];
+
+		double a = 0, offset = 0;
+		for (int j = 0; j < 4; j++) {
+			int iy = iy0 + (j & 1), iz = iz0 + (j >> 1);
+			double weight = ((j & 1) == 0 ? 1 - ys : ys) * ((j >> 1) == 0 ? 1 - zs : zs);
+
+			// Gradient noise is linear in the position, its components are read at one unit along each axis
+			a += weight * Noise.gradientNoise3D(ix + 1, iy, iz, ix, iy, iz, seed);
+			offset += weight * (Noise.gradientNoise3D(ix, iy + 1, iz, ix, iy, iz, seed) * (ny - iy) + Noise.gradientNoise3D(ix, iy, iz + 1, ix, iy, iz, seed) * (nz - iz));
+		}
+		state[c] = a;
+		state[c + 1] = offset;
+	}
+
+	private static double getDirect(double[] state, int b, double nx, int ix, double xs, int seed) {
+		double ny = state[b], nz = state[b + 1], ys = state[b + 2], zs = state[b + 3];
+		int iy = (int) state[b + 4], iz = (int) state[b + 5];
+
+		double ix0 = lerp(Noise.gradientNoise3D(nx, ny, nz, ix, iy, iz, seed), Noise.gradientNoise3D(nx, ny, nz, ix + 1, iy, iz, seed), xs);
+		double ix1 = lerp(Noise.gradientNoise3D(nx, ny, nz, ix, iy + 1, iz, seed), Noise.gradientNoise3D(nx, ny, nz, ix + 1, iy + 1, iz, seed), xs);
+		double iy0 = lerp(ix0, ix1, ys);
+		ix0 = lerp(Noise.gradientNoise3D(nx, ny, nz, ix, iy, iz + 1, seed), Noise.gradientNoise3D(nx, ny, nz, ix + 1, iy, iz + 1, seed), xs);
+		ix1 = lerp(Noise.gradientNoise3D(nx, ny, nz, ix, iy + 1, iz + 1, seed), Noise.gradientNoise3D(nx, ny, nz, ix + 1, iy + 1, iz + 1, seed), xs);
+		double iy1 = lerp(ix0, ix1, ys);
+		return lerp(iy0, iy1, zs);
+	}
+
+	private static int floor(double value) {
+		return value > 0 ? (int) value : (int) value - 1;
+	}
+
+	private double curve(double a) {
+		switch (this.curve) {
+			case 0:
+				return a;
+			case 2:
+				double a3 = a * a * a, a4 = a3 * a, a5 = a4 * a;
+				return 6 * a5 - 15 * a4 + 10 * a3;
+			default:
+				return a * a * (3 - 2 * a);
+		}
+	}
+
+	private static double lerp(double n0, double n1, double a) {
+		return (1 - a) * n0 + a * n1;
+	}
+
+	// Wraps coordinates to keep the lattice indices within the range of an int
+	private static double makeInt32Range(double n) {
+		if (n >= 1073741824.0)
+			return 2 * (n % 1073741824.0) - 1073741824.0;
+		if (n <= -1073741824.0)
+			return 2 * (n % 1073741824.0) + 1073741824.0;
+		return n;
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import net.smoofyuniverse.common.task.IncrementalListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Density of the orbits of random points c that escape the Mandelbrot set.
+ * Each worker accumulates into its own histogram and histograms are summed between rounds, so the sampling loop never synchronizes.
+ * Rendering can be continued with a larger budget, the samples already taken are kept.
+ */
+public class Buddhabrot {
+	public static final int ROUND_SAMPLES = 1 << 20, BATCH_SAMPLES = 1 << 12;
+	// Points are sampled in this rectangle which contains the whole set
+	public static final double SAMPLE_MIN_X = -2, SAMPLE_MAX_X = 0.5, SAMPLE_MIN_Y = -1.25, SAMPLE_MAX_Y = 1.25;
+
+	public final int width, height;
+	public final double minX, minY, xScale, yScale;
+	public final int maxIterations;
+	private final ForkJoinPool pool;
+	// Rejects the points that never escape with the optimizations of the escape-time engine
+	private final MandelbrotSet escape;
+
+	private final long[] density;
+	private final int[][] histograms;
+	private final SplittableRandom random;
+	private long samples;
+
+	public Buddhabrot(ForkJoinPool pool, double minX, double minY, double xScale, double yScale, int width, int height, int maxIterations, long seed) {
+		if (pool == null)
+			throw new IllegalArgumentException("pool");
+		if (xScale <= 0)
+			throw new IllegalArgumentException("xScale");
+		if (yScale <= 0)
+			throw new IllegalArgumentException("yScale");
+		if (width <= 0)
+			throw new IllegalArgumentException("width");
+		if (height <= 0)
+			throw new IllegalArgumentException("height");
+		if (maxIterations <= 0)
+			throw new IllegalArgumentException("maxIterations");
+
+		this.pool = pool;
+		this.minX = minX;
+		this.minY = minY;
+		this.xScale = xScale;
+		this.yScale = yScale;
+		this.width = width;
+		this.height = height;
+		this.maxIterations = maxIterations;
+		this.escape = new MandelbrotSet(pool, 0, 0, 0, 1, 1, maxIterations);
+
+		this.density = new long[width * height];
+		this.histograms = new int[pool.getParallelism()][width * height];
+		this.random = new SplittableRandom(seed);
+	}
+
+	/**
+	 * Samples until the total number of samples reaches the budget, the image is written after each round.
+	 * Progress is incremented once per sample.
+	 *
+	 * @return false if cancelled
+	 */
+	public boolean render(long budget, ArgbWriter writer, IncrementalListener listener) {
+		while (this.samples < budget) {
+			if (listener.isCancelled())
+				return false;
+
+			long round = Math.min(ROUND_SAMPLES, budget - this.samples);
+			int workers = this.histograms.length;
+
+			List<SampleTask> tasks = new ArrayList<>(workers);
+			for (int w = 0; w < workers; w++)
+				tasks.add(new SampleTask(this.histograms[w], this.random.split(), round / workers + (w < round % workers ? 1 : 0), listener));
+
+			this.pool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+			for (SampleTask task : tasks)
+				this.samples += task.done;
+
+			// Histograms are merged even after a cancellation so that no sample is lost
+			this.pool.invoke(new MergeTask(0, this.density.length));
+
+			if (writer != null)
+				writer.setPixels(0, 0, this.width, this.height, colorize(), 0, this.width);
+		}
+		return !listener.isCancelled();
+	}
+
+	// Gray levels with a square root curve since the density of a few pixels is much higher than the others
+	public int[] colorize() {
+		long max = 1;
+		for (long d : this.density)
+			max = Math.max(max, d);
+
+		double inv = 1d / max;
+		int[] argb = new int[this.density.length];
+		for (int p = 0; p < argb.length; p++)
+			argb[p] = EscapeTimeFractal.BLACK | 0x010101 * (int) Math.round(Math.sqrt(this.density[p] * inv) * 255);
+		return argb;
+	}
+
+	public long[] getDensity() {
+		return this.density;
+	}
+
+	public long getSamples() {
+		return this.samples;
+	}
+
+	private class SampleTask extends RecursiveAction {
+		private final int[] histogram;
+		private final SplittableRandom random;
+		private final long count;
+		private final IncrementalListener listener;
+		long done;
+
+		SampleTask(int[] histogram, SplittableRandom random, long count, IncrementalListener listener) {
+			this.histogram = histogram;
+			this.random = random;
+			this.count = count;
+			this.listener = listener;
+		}
+
+		@Override
+		protected void compute() {
+			int[] histogram = this.histogram;
+			SplittableRandom random = this.random;
+			MandelbrotSet escape = Buddhabrot.this.escape;
+			int width = Buddhabrot.this.width, height = Buddhabrot.this.height, max = Buddhabrot.this.maxIterations;
+			double minX = Buddhabrot.this.minX, minY = Buddhabrot.this.minY;
+			double invX = 1 / Buddhabrot.this.xScale, invY = 1 / Buddhabrot.this.yScale;
+
+			while (this.done < this.count) {
+				if (this.listener.isCancelled())
+					break;
+
+				int batch = (int) Math.min(BATCH_SAMPLES, this.count - this.done);
+				for (int n = 0; n < batch; n++) {
+					double x = random.nextDouble(SAMPLE_MIN_X, SAMPLE_MAX_X), y = random.nextDouble(SAMPLE_MIN_Y, SAMPLE_MAX_Y);
+
+					// Interior points are rejected by the cardioid test or the periodicity detection
+					int c = escape.getIterations(x, y);
+					if (c >= max)
+						continue;
+
+					// The escaping orbit is traced again, each of its points falls in a pixel
+					double r = 0, i = 0, r2 = 0, i2 = 0;
+					for (int k = 0; k < c; k++) {
+						i = 2 * i * r + y;
+						r = r2 - i2 + x;
+
+						r2 = r * r;
+						i2 = i * i;
+
+						// The first point is c itself, it would only draw the sampling rectangle
+						if (k == 0)
+							continue;
+
+						int pX = (int) Math.floor((r - minX) * invX), pY = (int) Math.floor((i - minY) * invY);
+						if (pX >= 0 && pX < width && pY >= 0 && pY < height)
+							histogram[pY * width + pX]++;
+					}
+				}
+
+				this.done += batch;
+				this.listener.increment(batch);
+			}
+		}
+	}
+
+	private class MergeTask extends RecursiveAction {
+		private final int from, to;
+
+		MergeTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from > 1 << 16) {
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new MergeTask(this.from, mid), new MergeTask(mid, this.to));
+				return;
+			}
+
+			long[] density = Buddhabrot.this.density;
+			for (int[] histogram : Buddhabrot.this.histograms) {
+				for (int p = this.from; p < this.to; p++) {
+					density[p] += histogram[p];
+					histogram[p] = 0;
+				}
+			}
+		}
+	}
+}
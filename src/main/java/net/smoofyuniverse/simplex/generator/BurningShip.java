@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Same as the Mandelbrot set but the absolute values of both parts of z are taken before squaring it.
+ */
+public class BurningShip extends EscapeTimeFractal {
+	public BurningShip(ForkJoinPool pool, int blocks, double minX, double minY, double xScale, double yScale, int maxIterations) {
+		super(pool, blocks, minX, minY, xScale, yScale, maxIterations);
+	}
+
+	@Override
+	public BurningShip copy(double minX, double minY, double xScale, double yScale) {
+		return copyOptions(new BurningShip(this.pool, this.blocks, minX, minY, xScale, yScale, this.maxIterations));
+	}
+
+	@Override
+	public int getIterations(double x, double y) {
+		double r = 0, i = 0, r2 = 0, i2 = 0;
+
+		int c = 0;
+		while (r2 + i2 < 4 && c < this.maxIterations) {
+			i = Math.abs(2 * i * r) + y;
+			r = r2 - i2 + x;
+
+			r2 = r * r;
+			i2 = i * i;
+
+			c++;
+		}
+
+		return c;
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import net.smoofyuniverse.common.task.IncrementalListener;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Mandelbrot set rendered with perturbation theory.
+ * A single reference orbit is computed with arbitrary precision at the center of the view,
+ * other pixels only iterate their difference to this orbit using doubles.
+ */
+public class DeepMandelbrotSet extends MandelbrotSet {
+	public static final double MAX_SCALE = 1e-13, MIN_SCALE = 1e-290;
+	public static final double SERIES_TOLERANCE = 1e-3;
+
+	public final BigDecimal centerX, centerY;
+	public final int width, height, centerPX, centerPY;
+	public final MathContext context;
+
+	private double[] referenceR, referenceI;
+	private int referenceLength;
+
+	private int skippedIterations;
+	private double aR, aI, bR, bI, cR, cI;
+
+	public DeepMandelbrotSet(ForkJoinPool pool, int blocks, BigDecimal centerX, BigDecimal centerY, double scale, int width, int height, int maxIterations) {
+		super(pool, blocks, centerX.doubleValue() - (width / 2) * scale, centerY.doubleValue() - (height / 2) * scale, scale, scale, maxIterations);
+		if (scale < MIN_SCALE)
+			throw new IllegalArgumentException("scale");
+		if (width <= 0)
+			throw new IllegalArgumentException("width");
+		if (height <= 0)
+			throw new IllegalArgumentException("height");
+
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.width = width;
+		this.height = height;
+		this.centerPX = width / 2;
+		this.centerPY = height / 2;
+		this.context = getMathContext(scale);
+
+		// The reference can be anywhere, approximations of the cardioid would be wrong at this scale
+		this.cardioidCheck = false;
+		this.periodicityCheck = false;
+	}
+
+	public static MathContext getMathContext(double scale) {
+		return new MathContext(Math.max(20, (int) Math.ceil(-Math.log10(scale)) + 20));
+	}
+
+	@Override
+	public void generate(ArgbWriter writer, IterationBuffer buffer, int step, boolean refine, IncrementalListener listener) {
+		if (!computeReference(listener))
+			return;
+		super.generate(writer, buffer, step, refine, listener);
+	}
+
+	// A deep view is described by its BigDecimal center, doubles would lose it: use copy(BigDecimal, BigDecimal, double, int, int)
+	@Override
+	public DeepMandelbrotSet copy(double minX, double minY, double xScale, double yScale) {
+		throw new UnsupportedOperationException();
+	}
+
+	// Same formula and options for another deep view, the copy computes its own reference orbit
+	public DeepMandelbrotSet copy(BigDecimal centerX, BigDecimal centerY, double scale, int width, int height) {
+		DeepMandelbrotSet set = copyOptions(new DeepMandelbrotSet(this.pool, this.blocks, centerX, centerY, scale, width, height, this.maxIterations));
+		set.vectorized = this.vectorized;
+		return set;
+	}
+
+	// Smooth counts are computed from absolute coordinates, which doubles cannot hold at this scale
+	@Override
+	public boolean supportsSmooth() {
+		return false;
+	}
+
+	@Override
+	public void resume(ArgbWriter writer, IterationBuffer buffer, IncrementalListener listener) {
+		if (!computeReference(listener))
+			return;
+		super.resume(writer, buffer, listener);
+	}
+
+	public synchronized boolean computeReference(IncrementalListener listener) {
+		if (this.referenceR != null)
+			return true;
+
+		int max = this.maxIterations;
+		double[] refR = new double[max + 1], refI = new double[max + 1];
+
+		MathContext mc = this.context;
+		BigDecimal x = this.centerX.round(mc), y = this.centerY.round(mc);
+		BigDecimal r = BigDecimal.ZERO, i = BigDecimal.ZERO;
+		BigDecimal two = BigDecimal.valueOf(2);
+
+		// Series approximation: delta(n) = A(n) * dc + B(n) * dc^2 + C(n) * dc^3
+		double dcMax = Math.hypot(this.centerPX, this.centerPY) * this.xScale;
+		double aR = 0, aI = 0, bR = 0, bI = 0, cR = 0, cI = 0;
+		boolean series = true;
+		int skipped = 0;
+
+		int n = 0;
+		while (n < max) {
+			if ((n & 1023) == 0 && listener.isCancelled())
+				return false;
+
+			double zr = refR[n], zi = refI[n];
+
+			if (series) {
+				double nCR = 2 * (zr * cR - zi * cI) + 2 * (aR * bR - aI * bI), nCI = 2 * (zr * cI + zi * cR) + 2 * (aR * bI + aI * bR);
+				double nBR = 2 * (zr * bR - zi * bI) + aR * aR - aI * aI, nBI = 2 * (zr * bI + zi * bR) + 2 * aR * aI;
+				double nAR = 2 * (zr * aR - zi * aI) + 1, nAI = 2 * (zr * aI + zi * aR);
+
+				// Stop skipping once a term is no longer negligible compared to the previous one
+				double a = Math.hypot(nAR, nAI), b = Math.hypot(nBR, nBI) * dcMax, c = Math.hypot(nCR, nCI) * dcMax * dcMax;
+				if (Double.isFinite(c) && b <= SERIES_TOLERANCE * a && c <= SERIES_TOLERANCE * b) {
+					aR = nAR;
+					aI = nAI;
+					bR = nBR;
+					bI = nBI;
+					cR = nCR;
+					cI = nCI;
+					skipped = n + 1;
+				} else {
+					series = false;
+				}
+			}
+
+			BigDecimal nr = r.multiply(r, mc).subtract(i.multiply(i, mc), mc).add(x, mc);
+			i = two.multiply(r, mc).multiply(i, mc).add(y, mc);
+			r = nr;
+			n++;
+
+			zr = r.doubleValue();
+			zi = i.doubleValue();
+			refR[n] = zr;
+			refI[n] = zi;
+
+			if (zr * zr + zi * zi >= 4)
+				break;
+		}
+
+		// Skipped iterations must still be covered by the reference orbit
+		if (skipped >= n)
+			skipped = 0;
+
+		this.referenceLength = n;
+		this.skippedIterations = skipped;
+		if (skipped != 0) {
+			this.aR = aR;
+			this.aI = aI;
+			this.bR = bR;
+			this.bI = bI;
+			this.cR = cR;
+			this.cI = cI;
+		}
+		this.referenceI = refI;
+		this.referenceR = refR;
+		return true;
+	}
+
+	@Override
+	protected void getPixelIterations(int[] pX, int pY, int count, int[] out) {
+		for (int n = 0; n < count; n++)
+			out[n] = getPixelIterations(pX[n], pY);
+	}
+
+	// The orbit is relative to a reference that depends on the budget, it is always started again
+	@Override
+	protected int getPixelIterations(int pX, int pY, IterationBuffer buffer, int p) {
+		return getPixelIterations(pX, pY);
+	}
+
+	@Override
+	protected int getPixelIterations(int pX, int pY) {
+		return getSubPixelIterations(pX, pY);
+	}
+
+	@Override
+	protected int getSubPixelIterations(double pX, double pY) {
+		double[] refR = this.referenceR, refI = this.referenceI;
+		int refLength = this.referenceLength, max = this.maxIterations;
+
+		double dcR = (pX - this.centerPX) * this.xScale, dcI = (pY - this.centerPY) * this.yScale;
+		double dR = 0, dI = 0;
+
+		int n = this.skippedIterations;
+		if (n != 0) {
+			double dc2R = dcR * dcR - dcI * dcI, dc2I = 2 * dcR * dcI;
+			double dc3R = dc2R * dcR - dc2I * dcI, dc3I = dc2R * dcI + dc2I * dcR;
+			dR = this.aR * dcR - this.aI * dcI + this.bR * dc2R - this.bI * dc2I + this.cR * dc3R - this.cI * dc3I;
+			dI = this.aR * dcI + this.aI * dcR + this.bR * dc2I + this.bI * dc2R + this.cR * dc3I + this.cI * dc3R;
+		}
+
+		int m = n;
+		while (n < max) {
+			// delta(n + 1) = (2 * Z(n) + delta(n)) * delta(n) + dc
+			double tR = 2 * refR[m] + dR, tI = 2 * refI[m] + dI;
+			double nR = tR * dR - tI * dI + dcR;
+			dI = tR * dI + tI * dR + dcI;
+			dR = nR;
+			m++;
+			n++;
+
+			double zR = refR[m] + dR, zI = refI[m] + dI;
+			double z2 = zR * zR + zI * zI;
+			if (z2 >= 4)
+				return n;
+
+			// Glitch: the orbit got closer to 0 than to the reference, the delta lost its precision.
+			// Rebase on the start of the reference, where Z(0) = 0, also when the reference has escaped.
+			if (z2 < dR * dR + dI * dI || m == refLength) {
+				dR = zR;
+				dI = zI;
+				m = 0;
+			}
+		}
+
+		return max;
+	}
+}
@@ -0,0 +1,682 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import net.smoofyuniverse.common.task.IncrementalListener;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel, progressive and resumable renderer of escape-time fractals.
+ * Subclasses only provide the iteration loop of their formula.
+ */
+public abstract class EscapeTimeFractal {
+	public static final int MIN_TILE_SIZE = 16, MIN_TILE_AREA = MIN_TILE_SIZE * MIN_TILE_SIZE;
+	public static final int SURPLUS_THRESHOLD = 2;
+	public static final int COARSEST_STEP = 8;
+	public static final int MIN_SUBDIVISION_AREA = 16;
+	public static final int MIN_EDGE_BATCH = 64;
+	public static final int BLACK = 0xFF000000;
+
+	public final int blocks;
+	public final double minX, minY;
+	public final double xScale, yScale;
+	public final int maxIterations;
+	protected final ForkJoinPool pool;
+
+	// Should have maxIterations colors, it can be replaced to recolor without computing again
+	public Palette palette;
+
+	// Optimizations, they can be disabled to compare with the brute-force result
+	public boolean subdivision = true;
+
+	protected EscapeTimeFractal(ForkJoinPool pool, int blocks, double minX, double minY, double xScale, double yScale, int maxIterations) {
+		if (pool == null)
+			throw new IllegalArgumentException("pool");
+		if (blocks < 0)
+			throw new IllegalArgumentException("blocks");
+		if (xScale == 0)
+			throw new IllegalArgumentException("xScale");
+		if (yScale == 0)
+			throw new IllegalArgumentException("yScale");
+		if (maxIterations <= 0)
+			throw new IllegalArgumentException("maxIterations");
+
+		this.pool = pool;
+		this.blocks = blocks;
+		this.minX = minX;
+		this.minY = minY;
+		this.xScale = xScale;
+		this.yScale = yScale;
+		this.maxIterations = maxIterations;
+		this.palette = Palette.create(Palette.LINEAR, maxIterations);
+	}
+
+	// Only the iteration counts, see colorize
+	public IterationBuffer generate(int width, int height, IncrementalListener listener) {
+		IterationBuffer buffer = new IterationBuffer(width, height);
+		generate(null, buffer, 1, false, listener);
+		return buffer;
+	}
+
+	// One sample is computed every step pixels and fills its block, complete tiles of the buffer are only displayed.
+	// The writer can be null when only the iteration counts are needed.
+	// When refining, known samples (non-zero counts, from a previous pass or copied from another buffer) are read from the buffer
+	// so each pixel is computed only once across all passes.
+	public void generate(ArgbWriter writer, IterationBuffer buffer, int step, boolean refine, IncrementalListener listener) {
+		if (step <= 0 || COARSEST_STEP % step != 0)
+			throw new IllegalArgumentException("step");
+
+		// Blocks is only a hint for the initial split, tiles are split further while other workers are starving
+		int targetTiles = this.blocks == 0 ? this.pool.getParallelism() * 8 : this.blocks;
+		int maxTileArea = Math.max(MIN_TILE_AREA, (int) Math.ceil(buffer.getIncompletePixels() / (double) targetTiles));
+
+		buffer.maxIterations = this.maxIterations;
+		TileTask task = new TileTask(new Pass(writer, buffer, step, refine, listener, maxTileArea), 0, 0, buffer.width, buffer.height);
+
+		// Joining from a worker of the pool helps executing subtasks instead of blocking
+		if (ForkJoinTask.getPool() == this.pool)
+			task.invoke();
+		else
+			this.pool.invoke(task);
+	}
+
+	// Updates a buffer computed with another budget: escaped pixels are kept and other ones continue from their saved state if any.
+	// Lowering the budget only recolors, the buffer keeps its counts so that raising it back is free.
+	public void resume(ArgbWriter writer, IterationBuffer buffer, IncrementalListener listener) {
+		int targetTasks = this.blocks == 0 ? this.pool.getParallelism() * 8 : this.blocks;
+		int maxTileArea = Math.max(MIN_TILE_AREA, (int) Math.ceil(buffer.width * buffer.height / (double) targetTasks));
+
+		ResumeTask task = new ResumeTask(new Pass(writer, buffer, 1, false, listener, maxTileArea), 0, buffer.height);
+		if (ForkJoinTask.getPool() == this.pool)
+			task.invoke();
+		else
+			this.pool.invoke(task);
+
+		if (!listener.isCancelled())
+			buffer.maxIterations = Math.max(buffer.maxIterations, this.maxIterations);
+	}
+
+	// Writes the view of the buffer with the current palette, nothing is computed again
+	public void colorize(ArgbWriter writer, IterationBuffer buffer) {
+		writer.setPixels(0, 0, buffer.viewWidth, buffer.viewHeight, colorize(buffer), 0, buffer.viewWidth);
+	}
+
+	private int[] colorize(IterationBuffer buffer) {
+		int[] argb = new int[buffer.viewWidth * buffer.viewHeight];
+		for (int y = 0; y < buffer.viewHeight; y++)
+			this.palette.apply(buffer.iterations, (y + buffer.viewY) * buffer.width + buffer.viewX, argb, y * buffer.viewWidth, buffer.viewWidth);
+		return argb;
+	}
+
+	/**
+	 * Fills the values with smooth (continuous) escape times, without subdivision nor periodicity detection.
+	 * They are between 1 and maxIterations like the counts, see {@link Palette#apply(float[], int, int[], int, int)}.
+	 * Callers must check {@link #supportsSmooth()} first.
+	 */
+	public void generateSmooth(float[] values, int width, int height, IncrementalListener listener) {
+		if (!supportsSmooth())
+			throw new IllegalStateException("Smooth escape times are not supported");
+		if (values.length < width * height)
+			throw new IllegalArgumentException("values");
+
+		SmoothTask task = new SmoothTask(values, width, 0, height, listener);
+		if (ForkJoinTask.getPool() == this.pool)
+			task.invoke();
+		else
+			this.pool.invoke(task);
+	}
+
+	public boolean supportsSmooth() {
+		return true;
+	}
+
+	// Pixels of the view whose count differs from a neighbor, at most budget of them: the ones with the highest contrast are chosen
+	public int[] getEdges(IterationBuffer buffer, int budget) {
+		if (budget < 0)
+			throw new IllegalArgumentException("budget");
+
+		int width = buffer.width, height = buffer.height, max = this.maxIterations;
+		int[] iterations = buffer.iterations;
+
+		// Contrast in the high bits so that sorting puts the strongest edges last
+		long[] edges = new long[buffer.viewWidth * buffer.viewHeight];
+		int count = 0;
+		for (int y = buffer.viewY, maxY = y + buffer.viewHeight; y < maxY; y++) {
+			for (int x = buffer.viewX, maxX = x + buffer.viewWidth, p = y * width + x; x < maxX; x++, p++) {
+				int c = Math.min(iterations[p], max), contrast = 0;
+				if (x > 0)
+					contrast = Math.max(contrast, Math.abs(c - Math.min(iterations[p - 1], max)));
+				if (x < width - 1)
+					contrast = Math.max(contrast, Math.abs(c - Math.min(iterations[p + 1], max)));
+				if (y > 0)
+					contrast = Math.max(contrast, Math.abs(c - Math.min(iterations[p - width], max)));
+				if (y < height - 1)
+					contrast = Math.max(contrast, Math.abs(c - Math.min(iterations[p + width], max)));
+
+				if (contrast != 0)
+					edges[count++] = (long) contrast << 32 | p;
+			}
+		}
+
+		int from = 0;
+		if (count > budget) {
+			Arrays.sort(edges, 0, count);
+			from = count - budget;
+		}
+
+		int[] pixels = new int[count - from];
+		for (int n = from; n < count; n++)
+			pixels[n - from] = (int) edges[n];
+		return pixels;
+	}
+
+	// The given pixels are sampled again on a grid x grid pattern, the counts of each pixel are consecutive. Null if cancelled.
+	public int[] sample(IterationBuffer buffer, int[] pixels, int grid, IncrementalListener listener) {
+		if (grid < 2)
+			throw new IllegalArgumentException("grid");
+
+		int[] samples = new int[pixels.length * grid * grid];
+		EdgeTask task = new EdgeTask(pixels, samples, 0, pixels.length, buffer.width, grid, listener);
+		if (ForkJoinTask.getPool() == this.pool)
+			task.invoke();
+		else
+			this.pool.invoke(task);
+
+		return listener.isCancelled() ? null : samples;
+	}
+
+	// The colors of the samples of each pixel are averaged, then the whole view is written.
+	// Only the palette is applied, the samples can be colored again when it changes.
+	public void antialias(ArgbWriter writer, IterationBuffer buffer, int[] pixels, int grid, int[] samples) {
+		if (grid < 2)
+			throw new IllegalArgumentException("grid");
+		int count = grid * grid;
+		if (samples.length != pixels.length * count)
+			throw new IllegalArgumentException("samples");
+
+		Palette palette = this.palette;
+		int width = buffer.width;
+		int[] argb = colorize(buffer);
+		for (int n = 0, i = 0; n < pixels.length; n++) {
+			int r = 0, g = 0, b = 0;
+			for (int end = i + count; i < end; i++) {
+				int color = palette.get(samples[i]);
+				r += color >> 16 & 0xFF;
+				g += color >> 8 & 0xFF;
+				b += color & 0xFF;
+			}
+
+			int p = pixels[n];
+			argb[(p / width - buffer.viewY) * buffer.viewWidth + p % width - buffer.viewX] =
+					BLACK | (r + count / 2) / count << 16 | (g + count / 2) / count << 8 | (b + count / 2) / count;
+		}
+
+		writer.setPixels(0, 0, buffer.viewWidth, buffer.viewHeight, argb, 0, buffer.viewWidth);
+	}
+
+	// Same formula, options and palette for another view
+	public abstract EscapeTimeFractal copy(double minX, double minY, double xScale, double yScale);
+
+	protected <T extends EscapeTimeFractal> T copyOptions(T fractal) {
+		fractal.palette = this.palette;
+		fractal.subdivision = this.subdivision;
+		return fractal;
+	}
+
+	public static int argb(double red, double green, double blue) {
+		return BLACK | (int) Math.round(red * 255) << 16 | (int) Math.round(green * 255) << 8 | (int) Math.round(blue * 255);
+	}
+
+	protected int getPixelIterations(int pX, int pY) {
+		return getIterations(this.minX + pX * this.xScale, this.minY + pY * this.yScale);
+	}
+
+	protected void getPixelIterations(int[] pX, int pY, int count, int[] out) {
+		double y = this.minY + pY * this.yScale;
+		for (int n = 0; n < count; n++)
+			out[n] = getIterations(this.minX + pX[n] * this.xScale, y);
+	}
+
+	private int getPixelIterations(IterationBuffer buffer, int pX, int pY) {
+		return buffer.real == null ? getPixelIterations(pX, pY) : getPixelIterations(pX, pY, buffer, pY * buffer.width + pX);
+	}
+
+	// Coordinates are in pixels and can be fractional
+	protected int getSubPixelIterations(double pX, double pY) {
+		return getIterations(this.minX + pX * this.xScale, this.minY + pY * this.yScale);
+	}
+
+	// Formulas without a resumable state start the orbit again
+	protected int getPixelIterations(int pX, int pY, IterationBuffer buffer, int p) {
+		return getPixelIterations(pX, pY);
+	}
+
+	// Between 1 and maxIterations, the latter meaning the point does not escape
+	public abstract int getIterations(double x, double y);
+
+	// Formulas without a smooth variant use the integer count
+	public float getSmoothIterations(double x, double y) {
+		return getIterations(x, y);
+	}
+
+	private static final class Pass {
+		final ArgbWriter writer;
+		final IterationBuffer buffer;
+		final int[] iterations;
+		final int width, step;
+		final boolean refine;
+		final IncrementalListener listener;
+		final int maxTileArea;
+
+		Pass(ArgbWriter writer, IterationBuffer buffer, int step, boolean refine, IncrementalListener listener, int maxTileArea) {
+			this.writer = writer;
+			this.buffer = buffer;
+			this.iterations = buffer.iterations;
+			this.width = buffer.width;
+			this.step = step;
+			this.refine = refine;
+			this.listener = listener;
+			this.maxTileArea = maxTileArea;
+		}
+
+		// Only the part inside the view of the buffer is written
+		void write(int minPX, int minPY, int maxPX, int maxPY, int[] argb) {
+			if (this.writer == null)
+				return;
+
+			IterationBuffer b = this.buffer;
+			int minX = Math.max(minPX, b.viewX), maxX = Math.min(maxPX, b.viewX + b.viewWidth);
+			int minY = Math.max(minPY, b.viewY), maxY = Math.min(maxPY, b.viewY + b.viewHeight);
+			if (minX >= maxX || minY >= maxY)
+				return;
+
+			int width = maxPX - minPX;
+			this.writer.setPixels(minX - b.viewX, minY - b.viewY, maxX - minX, maxY - minY, argb, (minY - minPY) * width + minX - minPX, width);
+		}
+	}
+
+	private class EdgeTask extends RecursiveAction {
+		private final int[] pixels, samples;
+		private final int from, to, width, grid;
+		private final IncrementalListener listener;
+
+		public EdgeTask(int[] pixels, int[] samples, int from, int to, int width, int grid, IncrementalListener listener) {
+			this.pixels = pixels;
+			this.samples = samples;
+			this.from = from;
+			this.to = to;
+			this.width = width;
+			this.grid = grid;
+			this.listener = listener;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.listener.isCancelled())
+				return;
+
+			int size = this.to - this.from;
+			if (size >= 2 * MIN_EDGE_BATCH && getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD) {
+				int mid = this.from + size / 2;
+				invokeAll(new EdgeTask(this.pixels, this.samples, this.from, mid, this.width, this.grid, this.listener),
+						new EdgeTask(this.pixels, this.samples, mid, this.to, this.width, this.grid, this.listener));
+				return;
+			}
+
+			int grid = this.grid;
+			for (int n = this.from, s = n * grid * grid; n < this.to; n++) {
+				int p = this.pixels[n], pX = p % this.width, pY = p / this.width;
+
+				// Samples are centered on the pixel, at the middle of each cell of the grid
+				for (int j = 0; j < grid; j++) {
+					double y = pY + (j + 0.5) / grid - 0.5;
+					for (int i = 0; i < grid; i++)
+						this.samples[s++] = getSubPixelIterations(pX + (i + 0.5) / grid - 0.5, y);
+				}
+			}
+			this.listener.increment(size);
+		}
+	}
+
+	private class SmoothTask extends RecursiveAction {
+		private final float[] values;
+		private final int width, minPY, maxPY;
+		private final IncrementalListener listener;
+
+		public SmoothTask(float[] values, int width, int minPY, int maxPY, IncrementalListener listener) {
+			this.values = values;
+			this.width = width;
+			this.minPY = minPY;
+			this.maxPY = maxPY;
+			this.listener = listener;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.listener.isCancelled())
+				return;
+
+			int height = this.maxPY - this.minPY;
+			if (height >= 2 && (height * this.width > MIN_TILE_AREA || getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD)) {
+				int midPY = this.minPY + height / 2;
+				invokeAll(new SmoothTask(this.values, this.width, this.minPY, midPY, this.listener),
+						new SmoothTask(this.values, this.width, midPY, this.maxPY, this.listener));
+				return;
+			}
+
+			for (int pY = this.minPY, p = pY * this.width; pY < this.maxPY; pY++) {
+				if (this.listener.isCancelled())
+					return;
+
+				double y = EscapeTimeFractal.this.minY + pY * EscapeTimeFractal.this.yScale;
+				for (int pX = 0; pX < this.width; pX++, p++)
+					this.values[p] = getSmoothIterations(EscapeTimeFractal.this.minX + pX * EscapeTimeFractal.this.xScale, y);
+				this.listener.increment(this.width);
+			}
+		}
+	}
+
+	private class ResumeTask extends RecursiveAction {
+		private final Pass pass;
+		private final int minPY, maxPY;
+
+		public ResumeTask(Pass pass, int minPY, int maxPY) {
+			this.pass = pass;
+			this.minPY = minPY;
+			this.maxPY = maxPY;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.pass.listener.isCancelled())
+				return;
+
+			int height = this.maxPY - this.minPY;
+			if (height >= 2 && (height * this.pass.width > this.pass.maxTileArea || getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD)) {
+				int midPY = this.minPY + height / 2;
+				invokeAll(new ResumeTask(this.pass, this.minPY, midPY), new ResumeTask(this.pass, midPY, this.maxPY));
+				return;
+			}
+
+			IterationBuffer buffer = this.pass.buffer;
+			int[] iterations = buffer.iterations;
+			int width = buffer.width;
+			int[] argb = new int[width * height];
+
+			for (int pY = this.minPY, p = pY * width, i = 0; pY < this.maxPY; pY++, i += width) {
+				if (this.pass.listener.isCancelled())
+					return;
+
+				for (int pX = 0; pX < width; pX++, p++) {
+					if (isPending(buffer, p))
+						iterations[p] = getPixelIterations(buffer, pX, pY);
+				}
+				EscapeTimeFractal.this.palette.apply(iterations, p - width, argb, i, width);
+				this.pass.listener.increment(width);
+			}
+
+			this.pass.write(0, this.minPY, width, this.maxPY, argb);
+		}
+
+		private boolean isPending(IterationBuffer buffer, int p) {
+			int c = buffer.iterations[p];
+			if (c >= EscapeTimeFractal.this.maxIterations)
+				return false;
+			if (buffer.real == null)
+				return c >= buffer.maxIterations;
+
+			// Points with a state did not escape, including the ones that never escape whose count must still follow the budget
+			return !Double.isNaN(buffer.real[p]) || c >= buffer.maxIterations;
+		}
+	}
+
+	private class TileTask extends RecursiveAction {
+		private final Pass pass;
+		private final int minPX, minPY, maxPX, maxPY;
+
+		public TileTask(Pass pass, int minPX, int minPY, int maxPX, int maxPY) {
+			this.pass = pass;
+			this.minPX = minPX;
+			this.minPY = minPY;
+			this.maxPX = maxPX;
+			this.maxPY = maxPY;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.pass.listener.isCancelled())
+				return;
+
+			int width = this.maxPX - this.minPX, height = this.maxPY - this.minPY;
+			int area = width * height;
+
+			IterationBuffer buffer = this.pass.buffer;
+			int size = buffer.tileSize;
+			if (size != 0) {
+				// Tasks never span several tiles of the buffer so that complete ones are skipped as a whole
+				boolean spanX = this.minPX / size != (this.maxPX - 1) / size, spanY = this.minPY / size != (this.maxPY - 1) / size;
+				if (spanX && (width >= height || !spanY)) {
+					int midPX = this.minPX + (width / size / 2) * size;
+					invokeAll(new TileTask(this.pass, this.minPX, this.minPY, midPX, this.maxPY),
+							new TileTask(this.pass, midPX, this.minPY, this.maxPX, this.maxPY));
+					return;
+				}
+				if (spanY) {
+					int midPY = this.minPY + (height / size / 2) * size;
+					invokeAll(new TileTask(this.pass, this.minPX, this.minPY, this.maxPX, midPY),
+							new TileTask(this.pass, this.minPX, midPY, this.maxPX, this.maxPY));
+					return;
+				}
+				if (buffer.isComplete(this.minPX / size, this.minPY / size)) {
+					display();
+					return;
+				}
+			}
+
+			// Split positions are aligned on the coarsest step so that a block never overlaps two tasks
+			boolean splitX = width >= 2 * MIN_TILE_SIZE, splitY = height >= 2 * MIN_TILE_SIZE;
+			if ((splitX || splitY) && (area > this.pass.maxTileArea || getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD)) {
+				if (splitX && (width >= height || !splitY)) {
+					int midPX = this.minPX + (width / 2 & -COARSEST_STEP);
+					invokeAll(new TileTask(this.pass, this.minPX, this.minPY, midPX, this.maxPY),
+							new TileTask(this.pass, midPX, this.minPY, this.maxPX, this.maxPY));
+				} else {
+					int midPY = this.minPY + (height / 2 & -COARSEST_STEP);
+					invokeAll(new TileTask(this.pass, this.minPX, this.minPY, this.maxPX, midPY),
+							new TileTask(this.pass, this.minPX, midPY, this.maxPX, this.maxPY));
+				}
+			} else {
+				render();
+			}
+		}
+
+		private void render() {
+			Pass pass = this.pass;
+			int width = this.maxPX - this.minPX, height = this.maxPY - this.minPY;
+			int step = pass.step;
+			int cols = (width + step - 1) / step, rows = (height + step - 1) / step;
+			int[] lattice = new int[cols * rows];
+
+			if (EscapeTimeFractal.this.subdivision) {
+				// Mariani-Silver: rectangles with a uniform border are filled without computing their interior
+				sampleRow(lattice, cols, 0, cols, 0);
+				sampleRow(lattice, cols, 0, cols, rows - 1);
+				for (int j = 1; j < rows - 1; j++) {
+					sample(lattice, cols, 0, j);
+					sample(lattice, cols, cols - 1, j);
+				}
+				subdivide(lattice, cols, 0, 0, cols - 1, rows - 1);
+			} else {
+				for (int j = 0; j < rows; j++) {
+					if (pass.listener.isCancelled())
+						return;
+
+					sampleRow(lattice, cols, 0, cols, j);
+				}
+			}
+
+			if (pass.listener.isCancelled())
+				return;
+
+			int[] iterations = pass.iterations;
+			int resolved = 0;
+
+			for (int j = 0, k = 0; j < rows; j++) {
+				int pY = this.minPY + j * step;
+				for (int i = 0; i < cols; i++, k++) {
+					int pX = this.minPX + i * step;
+					if (!isKnown(pX, pY)) {
+						iterations[pY * pass.width + pX] = lattice[k];
+						resolved++;
+					}
+				}
+			}
+
+			// Coloring is a separate pass, skipped when only the counts are needed
+			if (pass.writer != null) {
+				Palette palette = EscapeTimeFractal.this.palette;
+				int[] buffer = new int[width * height];
+
+				for (int j = 0, k = 0; j < rows; j++) {
+					int blockHeight = Math.min(step, this.maxPY - this.minPY - j * step);
+					for (int i = 0; i < cols; i++, k++) {
+						int color = palette.get(lattice[k]);
+						int blockWidth = Math.min(step, this.maxPX - this.minPX - i * step);
+						for (int b = j * step * width + i * step, l = 0; l < blockHeight; b += width, l++)
+							Arrays.fill(buffer, b, b + blockWidth, color);
+					}
+				}
+
+				pass.write(this.minPX, this.minPY, this.maxPX, this.maxPY, buffer);
+			}
+			pass.listener.increment(resolved);
+		}
+
+		private void display() {
+			if (this.pass.writer == null)
+				return;
+
+			int width = this.maxPX - this.minPX, height = this.maxPY - this.minPY;
+			int[] buffer = new int[width * height];
+
+			for (int pY = this.minPY, i = 0; pY < this.maxPY; pY++, i += width)
+				EscapeTimeFractal.this.palette.apply(this.pass.iterations, pY * this.pass.width + this.minPX, buffer, i, width);
+
+			this.pass.write(this.minPX, this.minPY, this.maxPX, this.maxPY, buffer);
+		}
+
+		private void subdivide(int[] lattice, int cols, int i0, int j0, int i1, int j1) {
+			if (i1 - i0 < 2 || j1 - j0 < 2 || this.pass.listener.isCancelled())
+				return;
+
+			int c = lattice[j0 * cols + i0];
+			boolean uniform = true;
+			for (int i = i0; i <= i1 && uniform; i++)
+				uniform = lattice[j0 * cols + i] == c && lattice[j1 * cols + i] == c;
+			for (int j = j0; j <= j1 && uniform; j++)
+				uniform = lattice[j * cols + i0] == c && lattice[j * cols + i1] == c;
+
+			if (uniform) {
+				for (int j = j0 + 1; j < j1; j++) {
+					for (int k = j * cols + i0 + 1, max = j * cols + i1; k < max; k++) {
+						if (lattice[k] == 0)
+							lattice[k] = c;
+					}
+				}
+				return;
+			}
+
+			if ((i1 - i0 - 1) * (j1 - j0 - 1) <= MIN_SUBDIVISION_AREA) {
+				for (int j = j0 + 1; j < j1; j++)
+					sampleRow(lattice, cols, i0 + 1, i1, j);
+				return;
+			}
+
+			int mi = (i0 + i1) >>> 1, mj = (j0 + j1) >>> 1;
+			for (int j = j0 + 1; j < j1; j++)
+				sample(lattice, cols, mi, j);
+			sampleRow(lattice, cols, i0 + 1, i1, mj);
+
+			subdivide(lattice, cols, i0, j0, mi, mj);
+			subdivide(lattice, cols, mi, j0, i1, mj);
+			subdivide(lattice, cols, i0, mj, mi, j1);
+			subdivide(lattice, cols, mi, mj, i1, j1);
+		}
+
+		private int sample(int[] lattice, int cols, int i, int j) {
+			int k = j * cols + i;
+			int c = lattice[k];
+			if (c == 0) {
+				int pX = this.minPX + i * this.pass.step, pY = this.minPY + j * this.pass.step;
+				c = isKnown(pX, pY) ? this.pass.iterations[pY * this.pass.width + pX] : getPixelIterations(this.pass.buffer, pX, pY);
+				lattice[k] = c;
+			}
+			return c;
+		}
+
+		// Unknown samples of a row are computed together so that they can be vectorized
+		private void sampleRow(int[] lattice, int cols, int i0, int i1, int j) {
+			Pass pass = this.pass;
+			int pY = this.minPY + j * pass.step;
+			int[] pX = new int[i1 - i0], indices = new int[i1 - i0];
+
+			int count = 0;
+			for (int i = i0, k = j * cols + i0; i < i1; i++, k++) {
+				if (lattice[k] != 0)
+					continue;
+
+				int x = this.minPX + i * pass.step;
+				if (isKnown(x, pY)) {
+					lattice[k] = pass.iterations[pY * pass.width + x];
+				} else {
+					pX[count] = x;
+					indices[count] = k;
+					count++;
+				}
+			}
+
+			if (count == 0)
+				return;
+
+			// The vectorized kernel does not save the state of the orbits
+			if (pass.buffer.real != null) {
+				for (int n = 0; n < count; n++)
+					lattice[indices[n]] = getPixelIterations(pass.buffer, pX[n], pY);
+				return;
+			}
+
+			int[] results = new int[count];
+			getPixelIterations(pX, pY, count, results);
+			for (int n = 0; n < count; n++)
+				lattice[indices[n]] = results[n];
+		}
+
+		private boolean isKnown(int pX, int pY) {
+			return this.pass.refine && this.pass.iterations[pY * this.pass.width + pX] != 0;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of an animation: the durations of the last rendered frames,
+ * the number of frames shown on time and the number of deadlines missed because no frame was ready.
+ */
+public class FrameStats {
+	private final long[] durations;
+	private int count, next;
+	private long presented, dropped;
+
+	public FrameStats(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity");
+		this.durations = new long[capacity];
+	}
+
+	// Only the last durations are kept, the oldest is overwritten
+	public synchronized void record(long nanos) {
+		this.durations[this.next] = nanos;
+		this.next = (this.next + 1) % this.durations.length;
+		if (this.count < this.durations.length)
+			this.count++;
+	}
+
+	public synchronized void present() {
+		this.presented++;
+	}
+
+	public synchronized void drop() {
+		this.dropped++;
+	}
+
+	public synchronized long getPresented() {
+		return this.presented;
+	}
+
+	public synchronized long getDropped() {
+		return this.dropped;
+	}
+
+	// Nearest rank among the kept durations, in nanoseconds, 0 if none was recorded
+	public synchronized long getPercentile(double p) {
+		if (p < 0 || p > 1)
+			throw new IllegalArgumentException("p");
+		if (this.count == 0)
+			return 0;
+
+		long[] sorted = Arrays.copyOf(this.durations, this.count);
+		Arrays.sort(sorted);
+		return sorted[Math.max((int) Math.ceil(p * this.count) - 1, 0)];
+	}
+}
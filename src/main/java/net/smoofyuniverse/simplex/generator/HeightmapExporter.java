@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import net.smoofyuniverse.common.task.IncrementalListener;
+import net.smoofyuniverse.simplex.util.PngWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Exports a noise as a 16-bit heightmap of any size. Strips of rows are generated in parallel and written directly
+ * to a raw file mapped in memory, holding unsigned little-endian heights row by row without header.
+ * Heights are normalized with the range of one row out of rangeStride measured beforehand, so the values are never all in memory.
+ * A stride of 1 gives an exact two-pass export, otherwise the values out of the sampled range are clamped.
+ */
+public class HeightmapExporter {
+	public static final int STRIP_HEIGHT = 64;
+
+	public final ForkJoinPool pool;
+	public final RowSampler sampler;
+	public final double originX, originY, z, step;
+	public final int width, height, strips;
+	public int rangeStride = 16;
+
+	private double min = Double.NaN, max = Double.NaN;
+
+	// The height of pixel (x, y) is the noise at (originX + x * step, originY + y * step, z)
+	public HeightmapExporter(ForkJoinPool pool, RowSampler sampler, double originX, double originY, double z, double step, int width, int height) {
+		if (pool == null)
+			throw new IllegalArgumentException("pool");
+		if (sampler == null)
+			throw new IllegalArgumentException("sampler");
+		if (!(step > 0))
+			throw new IllegalArgumentException("step");
+		if (width <= 0 || (long) width * STRIP_HEIGHT * 2 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("width");
+		if (height <= 0)
+			throw new IllegalArgumentException("height");
+
+		this.pool = pool;
+		this.sampler = sampler;
+		this.originX = originX;
+		this.originY = originY;
+		this.z = z;
+		this.step = step;
+		this.width = width;
+		this.height = height;
+		this.strips = (height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+	}
+
+	// Number of increments of the progress of an export
+	public long getWork(boolean png) {
+		long pixels = (long) this.width * this.height;
+		return getSampledRows() * this.width + (png ? 2 * pixels : pixels);
+	}
+
+	private long getSampledRows() {
+		return (this.height + this.rangeStride - 1) / this.rangeStride;
+	}
+
+	// The range of the last export, NaN before
+	public double getMin() {
+		return this.min;
+	}
+
+	public double getMax() {
+		return this.max;
+	}
+
+	// The PNG is encoded from a temporary raw file, progress is incremented once more per pixel encoded
+	public boolean exportPng(Path file, IncrementalListener listener) throws IOException {
+		Path raw = file.resolveSibling(file.getFileName() + ".r16");
+		if (!exportRaw(raw, listener))
+			return false;
+
+		boolean success = false;
+		try (FileChannel channel = FileChannel.open(raw, StandardOpenOption.READ);
+			 OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+			 PngWriter png = new PngWriter(out, this.width, this.height, 16, PngWriter.GRAY)) {
+			short[] heights = new short[this.width];
+			byte[] row = new byte[png.rowBytes];
+
+			for (int s = 0; s < this.strips; s++) {
+				int y0 = s * STRIP_HEIGHT, h = Math.min(STRIP_HEIGHT, this.height - y0);
+				ShortBuffer data = map(channel, MapMode.READ_ONLY, y0, h).asShortBuffer();
+
+				for (int y = 0; y < h; y++) {
+					if (listener.isCancelled())
+						return false;
+
+					// PNG samples are big-endian
+					data.get(heights);
+					for (int x = 0, i = 0; x < this.width; x++) {
+						row[i++] = (byte) (heights[x] >> 8);
+						row[i++] = (byte) heights[x];
+					}
+					png.writeRow(row);
+					listener.increment(this.width);
+				}
+			}
+			success = true;
+		} finally {
+			if (!success)
+				Files.deleteIfExists(file);
+			Files.deleteIfExists(raw);
+		}
+		return true;
+	}
+
+	// Progress is incremented once per pixel of the sampled rows and once per pixel written
+	public boolean exportRaw(Path file, IncrementalListener listener) throws IOException {
+		if (this.rangeStride <= 0)
+			throw new IllegalArgumentException("rangeStride");
+
+		double[] range = invoke(new RangeTask(listener, 0, (int) getSampledRows()));
+		if (listener.isCancelled())
+			return false;
+		this.min = range[0];
+		this.max = range[1];
+
+		// A partial file is deleted whether the export was cancelled or failed
+		boolean complete = false;
+		try {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				try {
+					invoke(new WriteTask(channel, listener, 0, this.strips));
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+				if (!listener.isCancelled()) {
+					channel.force(false);
+					complete = true;
+				}
+			}
+		} finally {
+			if (!complete)
+				Files.deleteIfExists(file);
+		}
+		return complete;
+	}
+
+	private <T> T invoke(ForkJoinTask<T> task) {
+		return ForkJoinTask.getPool() == this.pool ? task.invoke() : this.pool.invoke(task);
+	}
+
+	private void sample(int y, double[] row) {
+		this.sampler.get(this.originX, this.originY + y * this.step, this.z, this.step, this.width, row, 0);
+	}
+
+	private MappedByteBuffer map(FileChannel channel, MapMode mode, int y0, int h) throws IOException {
+		MappedByteBuffer data = channel.map(mode, (long) y0 * this.width * 2, (long) h * this.width * 2);
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		return data;
+	}
+
+	private boolean shouldSplit(int count) {
+		return count >= 2 && ForkJoinTask.getSurplusQueuedTaskCount() <= EscapeTimeFractal.SURPLUS_THRESHOLD;
+	}
+
+	// Minimum and maximum over the sampled rows from index minRow included to maxRow excluded
+	private class RangeTask extends RecursiveTask<double[]> {
+		private final IncrementalListener listener;
+		private final int minRow, maxRow;
+
+		RangeTask(IncrementalListener listener, int minRow, int maxRow) {
+			this.listener = listener;
+			this.minRow = minRow;
+			this.maxRow = maxRow;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (shouldSplit(this.maxRow - this.minRow)) {
+				int midRow = (this.minRow + this.maxRow) >>> 1;
+				RangeTask left = new RangeTask(this.listener, this.minRow, midRow);
+				left.fork();
+				double[] right = new RangeTask(this.listener, midRow, this.maxRow).compute(), range = left.join();
+				range[0] = Math.min(range[0], right[0]);
+				range[1] = Math.max(range[1], right[1]);
+				return range;
+			}
+
+			double[] row = new double[HeightmapExporter.this.width];
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for (int r = this.minRow; r < this.maxRow && !this.listener.isCancelled(); r++) {
+				sample(r * HeightmapExporter.this.rangeStride, row);
+				for (double value : row) {
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+				}
+				this.listener.increment(row.length);
+			}
+			return new double[] {min, max};
+		}
+	}
+
+	// Strips from minStrip included to maxStrip excluded
+	private class WriteTask extends RecursiveAction {
+		private final FileChannel channel;
+		private final IncrementalListener listener;
+		private final int minStrip, maxStrip;
+
+		WriteTask(FileChannel channel, IncrementalListener listener, int minStrip, int maxStrip) {
+			this.channel = channel;
+			this.listener = listener;
+			this.minStrip = minStrip;
+			this.maxStrip = maxStrip;
+		}
+
+		@Override
+		protected void compute() {
+			if (shouldSplit(this.maxStrip - this.minStrip)) {
+				int midStrip = (this.minStrip + this.maxStrip) >>> 1;
+				invokeAll(new WriteTask(this.channel, this.listener, this.minStrip, midStrip), new WriteTask(this.channel, this.listener, midStrip, this.maxStrip));
+				return;
+			}
+
+			int width = HeightmapExporter.this.width;
+			double[] row = new double[width];
+			double min = HeightmapExporter.this.min, factor = 65535 / (HeightmapExporter.this.max - min);
+			if (!(factor < Double.POSITIVE_INFINITY))
+				factor = 0;
+
+			for (int s = this.minStrip; s < this.maxStrip; s++) {
+				int y0 = s * STRIP_HEIGHT, h = Math.min(STRIP_HEIGHT, HeightmapExporter.this.height - y0);
+				ShortBuffer data;
+				try {
+					data = map(this.channel, MapMode.READ_WRITE, y0, h).asShortBuffer();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+
+				for (int y = y0; y < y0 + h; y++) {
+					if (this.listener.isCancelled())
+						return;
+
+					sample(y, row);
+					for (int x = 0; x < width; x++)
+						data.put((short) (int) Math.min(Math.max((row[x] - min) * factor + 0.5, 0), 65535));
+					this.listener.increment(width);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import java.util.Arrays;
+
+/**
+ * Iteration counts of a rectangular region, of which only a window is displayed.
+ * The region can be divided in square tiles, complete tiles are never computed again.
+ * A count of zero means the pixel is not known yet.
+ * Optionally, the last value of z is kept for points that did not escape so that their orbit can be continued:
+ * NaN means the point escaped or has no state and positive infinity means it never escapes.
+ */
+public class IterationBuffer {
+	public final int width, height;
+	public final int[] iterations;
+	public final double[] real, imag;
+	public final int tileSize, tilesX, tilesY;
+	private final boolean[] complete;
+
+	public int viewX, viewY, viewWidth, viewHeight;
+	public int maxIterations;
+
+	public IterationBuffer(int width, int height) {
+		this(width, height, 0);
+	}
+
+	public IterationBuffer(int width, int height, int tileSize) {
+		this(width, height, tileSize, false);
+	}
+
+	public IterationBuffer(int width, int height, int tileSize, boolean state) {
+		if (width <= 0)
+			throw new IllegalArgumentException("width");
+		if (height <= 0)
+			throw new IllegalArgumentException("height");
+		if (tileSize < 0 || tileSize != 0 && (tileSize % EscapeTimeFractal.COARSEST_STEP != 0 || width % tileSize != 0 || height % tileSize != 0))
+			throw new IllegalArgumentException("tileSize");
+
+		this.width = width;
+		this.height = height;
+		this.iterations = new int[width * height];
+		if (state) {
+			this.real = new double[width * height];
+			this.imag = new double[width * height];
+			Arrays.fill(this.real, Double.NaN);
+		} else {
+			this.real = null;
+			this.imag = null;
+		}
+		this.tileSize = tileSize;
+		this.tilesX = tileSize == 0 ? 0 : width / tileSize;
+		this.tilesY = tileSize == 0 ? 0 : height / tileSize;
+		this.complete = new boolean[this.tilesX * this.tilesY];
+
+		setView(0, 0, width, height);
+	}
+
+	public void setView(int x, int y, int width, int height) {
+		if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > this.width || y + height > this.height)
+			throw new IllegalArgumentException();
+
+		this.viewX = x;
+		this.viewY = y;
+		this.viewWidth = width;
+		this.viewHeight = height;
+	}
+
+	public boolean isComplete(int tileX, int tileY) {
+		return this.complete[tileY * this.tilesX + tileX];
+	}
+
+	public void setComplete(int tileX, int tileY, boolean value) {
+		this.complete[tileY * this.tilesX + tileX] = value;
+	}
+
+	public int[] getTile(int tileX, int tileY) {
+		int size = this.tileSize;
+		int[] data = new int[size * size];
+		for (int j = 0, p = tileY * size * this.width + tileX * size; j < size; j++, p += this.width)
+			System.arraycopy(this.iterations, p, data, j * size, size);
+		return data;
+	}
+
+	public void setTile(int tileX, int tileY, int[] data) {
+		int size = this.tileSize;
+		if (data.length != size * size)
+			throw new IllegalArgumentException("data");
+
+		for (int j = 0, p = tileY * size * this.width + tileX * size; j < size; j++, p += this.width)
+			System.arraycopy(data, j * size, this.iterations, p, size);
+		setComplete(tileX, tileY, true);
+	}
+
+	// Copies the known pixels of another buffer, the pixel (x, y) of the source becomes (x + offsetX, y + offsetY)
+	public boolean copy(IterationBuffer source, int offsetX, int offsetY) {
+		int minX = Math.max(0, offsetX), maxX = Math.min(this.width, source.width + offsetX);
+		int minY = Math.max(0, offsetY), maxY = Math.min(this.height, source.height + offsetY);
+		if (minX >= maxX || minY >= maxY)
+			return false;
+
+		boolean state = this.real != null && source.real != null;
+		for (int y = minY; y < maxY; y++) {
+			int p = y * this.width + minX, sp = (y - offsetY) * source.width + minX - offsetX;
+			System.arraycopy(source.iterations, sp, this.iterations, p, maxX - minX);
+			if (state) {
+				System.arraycopy(source.real, sp, this.real, p, maxX - minX);
+				System.arraycopy(source.imag, sp, this.imag, p, maxX - minX);
+			}
+		}
+		return true;
+	}
+
+	public int getIncompletePixels() {
+		int count = 0;
+		for (int c : this.iterations) {
+			if (c == 0)
+				count++;
+		}
+		return count;
+	}
+}
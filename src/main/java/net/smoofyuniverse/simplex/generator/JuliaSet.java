@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Points z whose orbit under z² + c does not escape, for a fixed c.
+ */
+public class JuliaSet extends EscapeTimeFractal {
+	public final double cX, cY;
+
+	public JuliaSet(ForkJoinPool pool, int blocks, double minX, double minY, double xScale, double yScale, int maxIterations, double cX, double cY) {
+		super(pool, blocks, minX, minY, xScale, yScale, maxIterations);
+		this.cX = cX;
+		this.cY = cY;
+	}
+
+	@Override
+	public JuliaSet copy(double minX, double minY, double xScale, double yScale) {
+		return copyOptions(new JuliaSet(this.pool, this.blocks, minX, minY, xScale, yScale, this.maxIterations, this.cX, this.cY));
+	}
+
+	@Override
+	public int getIterations(double x, double y) {
+		double cX = this.cX, cY = this.cY;
+		double r = x, i = y, r2 = r * r, i2 = i * i;
+
+		// The starting point counts as the first iteration since zero means unknown
+		int c = 1;
+		while (r2 + i2 < 4 && c < this.maxIterations) {
+			i = 2 * i * r + cY;
+			r = r2 - i2 + cX;
+
+			r2 = r * r;
+			i2 = i * i;
+
+			c++;
+		}
+
+		return c;
+	}
+}
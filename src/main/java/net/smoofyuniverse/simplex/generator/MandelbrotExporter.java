@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import net.smoofyuniverse.common.task.IncrementalListener;
+import net.smoofyuniverse.simplex.generator.TileCoordinator.Region;
+import net.smoofyuniverse.simplex.util.PngWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders images of any size in horizontal strips on the parallel engine or on remote {@link TileWorker}s, only the strips being rendered are in memory.
+ * Iteration counts are written in a raw file mapped in memory: a header describing the image and the fractal, one byte per strip telling whether it is complete,
+ * then the counts as little-endian ints, row by row. An interrupted export resumes from the complete strips.
+ */
+public class MandelbrotExporter {
+	public static final int MAGIC = 0x534D4954, VERSION = 2;
+	public static final int HEADER_SIZE = 128;
+
+	public final EscapeTimeFractal set;
+	public final int width, height, stripHeight, strips;
+	private final long dataOffset;
+
+	// Strips are rendered by remote workers when set, locally otherwise
+	public TileCoordinator coordinator;
+
+	public MandelbrotExporter(EscapeTimeFractal set, int width, int height, int stripHeight) {
+		// Deep zoom is relative to the center of a view, strips cannot be rendered independently
+		if (set == null || set instanceof DeepMandelbrotSet)
+			throw new IllegalArgumentException("set");
+		if (width <= 0)
+			throw new IllegalArgumentException("width");
+		if (height <= 0)
+			throw new IllegalArgumentException("height");
+		if (stripHeight <= 0 || (long) width * stripHeight * 4 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("stripHeight");
+
+		this.set = set;
+		this.width = width;
+		this.height = height;
+		this.stripHeight = stripHeight;
+		this.strips = (height + stripHeight - 1) / stripHeight;
+		this.dataOffset = HEADER_SIZE + (this.strips + 7 & -8);
+	}
+
+	// Progress is incremented twice per pixel: once when it is computed and once when it is encoded
+	public boolean exportPng(Path file, IncrementalListener listener) throws IOException {
+		Path raw = file.resolveSibling(file.getFileName() + ".iter");
+		if (!exportRaw(raw, listener))
+			return false;
+
+		boolean success = false;
+		try (FileChannel channel = FileChannel.open(raw, StandardOpenOption.READ);
+			 OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+			 PngWriter png = new PngWriter(out, this.width, this.height, 8, PngWriter.RGB)) {
+			int[] argb = new int[this.width], counts = new int[this.width];
+			byte[] row = new byte[png.rowBytes];
+
+			for (int s = 0; s < this.strips; s++) {
+				int y0 = s * this.stripHeight, h = Math.min(this.stripHeight, this.height - y0);
+				IntBuffer data = map(channel, MapMode.READ_ONLY, y0, h).asIntBuffer();
+
+				for (int y = 0; y < h; y++) {
+					if (listener.isCancelled())
+						return false;
+
+					data.get(counts);
+					this.set.palette.apply(counts, 0, argb, 0, this.width);
+					for (int x = 0, i = 0; x < this.width; x++) {
+						int color = argb[x];
+						row[i++] = (byte) (color >> 16);
+						row[i++] = (byte) (color >> 8);
+						row[i++] = (byte) color;
+					}
+					png.writeRow(row);
+					listener.increment(this.width);
+				}
+			}
+			success = true;
+		} finally {
+			if (!success)
+				Files.deleteIfExists(file);
+		}
+
+		Files.delete(raw);
+		return true;
+	}
+
+	public boolean exportRaw(Path file, IncrementalListener listener) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			byte[] fractal = writeFractal();
+			if (!isResumable(channel, fractal)) {
+				channel.truncate(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(MAGIC).putInt(VERSION).putInt(this.width).putInt(this.height).putInt(this.stripHeight).putInt(fractal.length).put(fractal);
+				header.clear();
+				channel.write(header, 0);
+
+				// The file is allocated at once so that its size tells whether it can be resumed
+				channel.write(ByteBuffer.allocate(1), this.dataOffset + (long) this.width * this.height * 4 - 1);
+			}
+
+			MappedByteBuffer flags = channel.map(MapMode.READ_WRITE, HEADER_SIZE, this.strips);
+			for (int s = 0; s < this.strips; s++) {
+				if (flags.get(s) != 0)
+					listener.increment((long) Math.min(this.stripHeight, this.height - s * this.stripHeight) * this.width);
+			}
+
+			List<Region> regions = new ArrayList<>();
+			for (int s = 0; s < this.strips; s++) {
+				if (flags.get(s) == 0)
+					regions.add(new Region(0, s * this.stripHeight, this.width, Math.min(this.stripHeight, this.height - s * this.stripHeight)));
+			}
+
+			TileCoordinator coordinator = this.coordinator == null ? new TileCoordinator(List.of()) : this.coordinator;
+			return coordinator.render(this.set, regions, (r, iterations) -> {
+				MappedByteBuffer data = map(channel, MapMode.READ_WRITE, r.y(), r.height());
+				data.asIntBuffer().put(iterations);
+				data.force();
+
+				// The strip is marked complete only once its data is on disk
+				flags.put(r.y() / this.stripHeight, (byte) 1);
+				flags.force();
+			}, listener);
+		}
+	}
+
+	// Type, parameters and options of the fractal, as sent to the workers
+	private byte[] writeFractal() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TileWorker.writeFractal(new DataOutputStream(bytes), this.set);
+		if (bytes.size() > HEADER_SIZE - 24)
+			throw new IllegalStateException("Fractal too large for the header");
+		return bytes.toByteArray();
+	}
+
+	private boolean isResumable(FileChannel channel, byte[] fractal) throws IOException {
+		if (channel.size() != this.dataOffset + (long) this.width * this.height * 4)
+			return false;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		channel.read(header, 0);
+		header.flip();
+		return header.remaining() == HEADER_SIZE && header.getInt() == MAGIC && header.getInt() == VERSION
+				&& header.getInt() == this.width && header.getInt() == this.height && header.getInt() == this.stripHeight
+				&& header.getInt() == fractal.length && header.slice(header.position(), fractal.length).equals(ByteBuffer.wrap(fractal));
+	}
+
+	private MappedByteBuffer map(FileChannel channel, MapMode mode, int y0, int h) throws IOException {
+		MappedByteBuffer data = channel.map(mode, this.dataOffset + (long) y0 * this.width * 4, (long) h * this.width * 4);
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		return data;
+	}
+}
@@ -22,103 +22,163 @@
 
 package net.smoofyuniverse.simplex.generator;
 
-import javafx.scene.image.PixelWriter;
-import javafx.scene.image.WritableImage;
-import javafx.scene.paint.Color;
-import net.smoofyuniverse.common.logger.ApplicationLogger;
-import net.smoofyuniverse.common.task.IncrementalListener;
-import org.slf4j.Logger;
-
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-
-public class MandelbrotSet {
-	private static final Logger logger = ApplicationLogger.get(MandelbrotSet.class);
-	public final int blocks;
-	public final double minX, minY;
-	public final double xScale, yScale;
-	public final int maxIterations;
-	public final Color[] colors;
-	private final ExecutorService executor;
-
-	public MandelbrotSet(ExecutorService executor, int blocks, double minX, double minY, double xScale, double yScale, int maxIterations) {
-		if (blocks <= 0)
-			throw new IllegalArgumentException("blocks");
-		if (executor == null)
-			throw new IllegalArgumentException("executor");
-		if (xScale == 0)
-			throw new IllegalArgumentException("xScale");
-		if (yScale == 0)
-			throw new IllegalArgumentException("yScale");
-		if (maxIterations <= 0)
-			throw new IllegalArgumentException("maxIterations");
-
-		this.executor = executor;
-		this.blocks = blocks;
-		this.minX = minX;
-		this.minY = minY;
-		this.xScale = xScale;
-		this.yScale = yScale;
-		this.maxIterations = maxIterations;
-		this.colors = new Color[maxIterations];
-
-		// Default color mapping
-		for (int i = 0; i < maxIterations; i++)
-			this.colors[i] = Color.color(i / (double) maxIterations, 0, 0);
-		this.colors[maxIterations - 1] = Color.BLACK;
+import java.util.concurrent.ForkJoinPool;
+
+public class MandelbrotSet extends EscapeTimeFractal {
+	public static final boolean VECTOR_SUPPORTED = isVectorSupported();
+	private static final double SMOOTH_RADIUS2 = 1 << 16, LOG_2 = Math.log(2);
+
+	// Optimizations, they can be disabled to compare with the brute-force result
+	public boolean cardioidCheck = true, periodicityCheck = true, vectorized = VECTOR_SUPPORTED;
+
+	public MandelbrotSet(ForkJoinPool pool, int blocks, double minX, double minY, double xScale, double yScale, int maxIterations) {
+		super(pool, blocks, minX, minY, xScale, yScale, maxIterations);
 	}
 
-	public WritableImage generate(int width, int height, IncrementalListener listener) {
-		WritableImage image = new WritableImage(width, height);
-		generate(image.getPixelWriter(), width, height, listener);
-		return image;
+	@Override
+	public MandelbrotSet copy(double minX, double minY, double xScale, double yScale) {
+		MandelbrotSet set = copyOptions(new MandelbrotSet(this.pool, this.blocks, minX, minY, xScale, yScale, this.maxIterations));
+		set.cardioidCheck = this.cardioidCheck;
+		set.periodicityCheck = this.periodicityCheck;
+		set.vectorized = this.vectorized;
+		return set;
 	}
 
-	public void generate(PixelWriter writer, int width, int height, IncrementalListener listener) {
-		CountDownLatch latch = new CountDownLatch(this.blocks);
-		int size = width * height;
-		int blockSize = (int) Math.ceil(size / (double) this.blocks);
+	private static boolean isVectorSupported() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+			return false;
 
-		for (int i = 0; i < this.blocks; i++) {
-			if (listener.isCancelled())
-				return;
+		try {
+			return VectorKernel.LANES >= 2;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
 
-			int blockMin = blockSize * i;
-			this.executor.execute(() -> {
-				try {
-					int blockMax = blockMin + blockSize;
-					if (blockMax > size)
-						blockMax = size;
+	@Override
+	protected void getPixelIterations(int[] pX, int pY, int count, int[] out) {
+		double[] x = new double[count];
+		for (int n = 0; n < count; n++)
+			x[n] = this.minX + pX[n] * this.xScale;
+		getIterations(x, this.minY + pY * this.yScale, count, out);
+	}
 
-					for (int p = blockMin; p < blockMax; p++) {
-						if (listener.isCancelled())
-							return;
+	public void getIterations(double[] x, double y, int count, int[] out) {
+		if (this.vectorized) {
+			VectorKernel.getIterations(x, y, count, this.maxIterations, this.cardioidCheck, this.periodicityCheck, out);
+		} else {
+			for (int n = 0; n < count; n++)
+				out[n] = getIterations(x[n], y);
+		}
+	}
 
-						int pX = p % width, pY = p / width;
+	@Override
+	protected int getPixelIterations(int pX, int pY, IterationBuffer buffer, int p) {
+		return getIterations(this.minX + pX * this.xScale, this.minY + pY * this.yScale, buffer, p);
+	}
 
-						double x = this.minX + pX * this.xScale;
-						double y = this.minY + pY * this.yScale;
+	public static boolean isInMainCardioidOrBulb(double x, double y) {
+		double y2 = y * y;
 
-						writer.setColor(pX, pY, this.colors[getIterations(x, y) - 1]);
-						listener.increment(1);
-					}
-				} finally {
-					latch.countDown();
-				}
-			});
-		}
+		double dx = x - 0.25;
+		double q = dx * dx + y2;
+		if (q * (q + dx) <= 0.25 * y2)
+			return true;
 
-		try {
-			latch.await();
-		} catch (InterruptedException e) {
-			logger.error("Interruption", e);
-		}
+		dx = x + 1;
+		return dx * dx + y2 <= 0.0625;
 	}
 
+	@Override
 	public int getIterations(double x, double y) {
+		if (this.cardioidCheck && isInMainCardioidOrBulb(x, y))
+			return this.maxIterations;
+
+		boolean periodicityCheck = this.periodicityCheck;
 		double r = 0, i = 0, r2 = 0, i2 = 0;
+		double savedR = 0, savedI = 0;
+		int saveAt = 1;
+
+		int c = 0;
+		while (r2 + i2 < 4 && c < this.maxIterations) {
+			i = 2 * i * r + y;
+			r = r2 - i2 + x;
+
+			r2 = r * r;
+			i2 = i * i;
+
+			c++;
+
+			if (periodicityCheck) {
+				// The orbit came back exactly to a previous value, it is a cycle that will never escape
+				if (r == savedR && i == savedI)
+					return this.maxIterations;
+
+				// Brent: the saved value is updated at powers of two so any period is eventually detected
+				if (c == saveAt) {
+					savedR = r;
+					savedI = i;
+					saveAt <<= 1;
+				}
+			}
+		}
 
+		return c;
+	}
+
+	// The orbit runs until a larger radius so that the fractional part is continuous across the bands of counts
+	@Override
+	public float getSmoothIterations(double x, double y) {
+		if (this.cardioidCheck && isInMainCardioidOrBulb(x, y))
+			return this.maxIterations;
+
+		double r = 0, i = 0, r2 = 0, i2 = 0;
 		int c = 0;
+		while (r2 + i2 < SMOOTH_RADIUS2 && c < this.maxIterations) {
+			i = 2 * i * r + y;
+			r = r2 - i2 + x;
+
+			r2 = r * r;
+			i2 = i * i;
+
+			c++;
+		}
+
+		if (c == this.maxIterations)
+			return c;
+
+		// log2(log|z|) shifts the count by how far beyond the radius the orbit went
+		double nu = c + 1 - Math.log(0.5 * Math.log(r2 + i2)) / LOG_2;
+		return (float) Math.min(Math.max(nu, 1), this.maxIterations - 1);
+	}
+
+	// Same as above but the orbit starts from the state of the pixel p and the state is saved if the point does not escape
+	public int getIterations(double x, double y, IterationBuffer buffer, int p) {
+		double[] real = buffer.real, imag = buffer.imag;
+
+		double r = real[p], i;
+		int c;
+		if (r == Double.POSITIVE_INFINITY)
+			return this.maxIterations;
+
+		if (Double.isNaN(r)) {
+			if (this.cardioidCheck && isInMainCardioidOrBulb(x, y)) {
+				real[p] = Double.POSITIVE_INFINITY;
+				return this.maxIterations;
+			}
+			r = 0;
+			i = 0;
+			c = 0;
+		} else {
+			i = imag[p];
+			c = buffer.iterations[p];
+		}
+
+		boolean periodicityCheck = this.periodicityCheck;
+		double r2 = r * r, i2 = i * i;
+		double savedR = r, savedI = i;
+		int saveAt = Math.max(1, c << 1);
+
 		while (r2 + i2 < 4 && c < this.maxIterations) {
 			i = 2 * i * r + y;
 			r = r2 - i2 + x;
@@ -127,8 +187,27 @@ public class MandelbrotSet {
 			i2 = i * i;
 
 			c++;
+
+			if (periodicityCheck) {
+				if (r == savedR && i == savedI) {
+					real[p] = Double.POSITIVE_INFINITY;
+					return this.maxIterations;
+				}
+
+				if (c == saveAt) {
+					savedR = r;
+					savedI = i;
+					saveAt <<= 1;
+				}
+			}
 		}
 
+		if (r2 + i2 < 4) {
+			real[p] = r;
+			imag[p] = i;
+		} else {
+			real[p] = Double.NaN;
+		}
 		return c;
 	}
 }
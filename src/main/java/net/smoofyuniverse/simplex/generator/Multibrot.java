@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Generalization of the Mandelbrot set to z^n + c for an integer power n.
+ */
+public class Multibrot extends EscapeTimeFractal {
+	public final int power;
+
+	public Multibrot(ForkJoinPool pool, int blocks, double minX, double minY, double xScale, double yScale, int maxIterations, int power) {
+		super(pool, blocks, minX, minY, xScale, yScale, maxIterations);
+		if (power < 2)
+			throw new IllegalArgumentException("power");
+		this.power = power;
+	}
+
+	@Override
+	public Multibrot copy(double minX, double minY, double xScale, double yScale) {
+		return copyOptions(new Multibrot(this.pool, this.blocks, minX, minY, xScale, yScale, this.maxIterations, this.power));
+	}
+
+	@Override
+	public int getIterations(double x, double y) {
+		int power = this.power;
+		double r = 0, i = 0;
+
+		int c = 0;
+		while (r * r + i * i < 4 && c < this.maxIterations) {
+			// z^n by repeated multiplications, faster than the polar form for small powers
+			double pr = r, pi = i;
+			for (int k = 1; k < power; k++) {
+				double t = pr * r - pi * i;
+				pi = pr * i + pi * r;
+				pr = t;
+			}
+
+			r = pr + x;
+			i = pi + y;
+
+			c++;
+		}
+
+		return c;
+	}
+}
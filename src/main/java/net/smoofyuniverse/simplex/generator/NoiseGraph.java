@@ -0,0 +1,586 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import org.spongepowered.noise.NoiseQuality;
+import org.spongepowered.noise.module.Module;
+import org.spongepowered.noise.module.source.Const;
+import org.spongepowered.noise.module.source.Perlin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Graphs of noise modules, the nodes mirror the modifiers of the noise library.
+ * A graph can be walked node by node for each point, or compiled into a flat list of operations on rows:
+ * each operation fills the values of a node for a whole row and equal subgraphs are computed once.
+ * Existing pipelines of modules are translated into graphs by {@link #of(Module)}.
+ */
+public final class NoiseGraph {
+	// Offsets of the three distortions of a turbulence, as in the noise library
+	private static final double[] TURBULENCE_OFFSETS = {
+			12414 / 65536d, 65124 / 65536d, 31337 / 65536d,
+			26519 / 65536d, 18128 / 65536d, 60493 / 65536d,
+			53820 / 65536d, 11213 / 65536d, 44845 / 65536d};
+
+	private NoiseGraph() {}
+
+	public static RowSampler compile(Node root) {
+		if (root == null)
+			throw new IllegalArgumentException("root");
+		return new Program(root);
+	}
+
+	/**
+	 * Translates a pipeline of modules of the noise library into a graph, module by module.
+	 * The modifiers, combiners and selectors that have a node are translated with the parameters they have now,
+	 * other modules become sources, so that their subgraphs are only shared as a whole.
+	 * A module used several times becomes a single node.
+	 */
+	public static Node of(Module module) {
+		if (module == null)
+			throw new IllegalArgumentException("module");
+		return of(module, new IdentityHashMap<>());
+	}
+
+	private static Node of(Module module, Map<Module, Node> nodes) {
+		Node node = nodes.get(module);
+		if (node != null)
+			return node;
+
+		if (module instanceof Const c)
+			node = new Constant(c.getValue());
+		else if (module instanceof org.spongepowered.noise.module.modifier.ScaleBias sb)
+			node = new ScaleBias(of(sb.getSourceModule(0), nodes), sb.getScale(), sb.getBias());
+		else if (module instanceof org.spongepowered.noise.module.modifier.Abs a)
+			node = new Abs(of(a.getSourceModule(0), nodes));
+		else if (module instanceof org.spongepowered.noise.module.modifier.Clamp c)
+			node = new Clamp(of(c.getSourceModule(0), nodes), c.getLowerBound(), c.getUpperBound());
+		else if (module instanceof org.spongepowered.noise.module.modifier.Turbulence t)
+			node = turbulence(of(t.getSourceModule(0), nodes), t.getSeed(), t.getFrequency(), t.getPower(), t.getRoughnessCount());
+		else if (module instanceof org.spongepowered.noise.module.combiner.Add a)
+			node = new Add(of(a.getSourceModule(0), nodes), of(a.getSourceModule(1), nodes));
+		else if (module instanceof org.spongepowered.noise.module.combiner.Multiply m)
+			node = new Multiply(of(m.getSourceModule(0), nodes), of(m.getSourceModule(1), nodes));
+		else if (module instanceof org.spongepowered.noise.module.combiner.Select s)
+			node = new Select(of(s.getSourceModule(0), nodes), of(s.getSourceModule(1), nodes), of(s.getControlModule(), nodes),
+					s.getLowerBound(), s.getUpperBound(), s.getEdgeFalloff());
+		else
+			node = new Source(module);
+
+		nodes.put(module, node);
+		return node;
+	}
+
+	// Walks the graph for each point, the reference for compiled graphs
+	public static RowSampler walk(Node root) {
+		if (root == null)
+			throw new IllegalArgumentException("root");
+		return (x, y, z, step, count, out, offset) -> {
+			for (int i = 0; i < count; i++)
+				out[offset + i] = root.get(x + i * step, y, z);
+		};
+	}
+
+	public static Perlin perlin(int seed, int octaveCount, double frequency) {
+		Perlin perlin = new Perlin();
+		perlin.setSeed(seed);
+		perlin.setOctaveCount(octaveCount);
+		perlin.setFrequency(frequency);
+		perlin.setLacunarity(2d);
+		perlin.setPersistence(0.5d);
+		perlin.setNoiseQuality(NoiseQuality.STANDARD);
+		return perlin;
+	}
+
+	// Distortion by three Perlin noises of the given frequency, roughness being their number of octaves
+	public static Turbulence turbulence(Node source, int seed, double frequency, double power, int roughness) {
+		return new Turbulence(source, new Source(perlin(seed, roughness, frequency)),
+				new Source(perlin(seed + 1, roughness, frequency)), new Source(perlin(seed + 2, roughness, frequency)), power);
+	}
+
+	// Ridged mountains and flat plains sharing the same base noise, chosen by a distorted low frequency noise
+	public static Node terrain(Perlin base, int seed) {
+		Node noise = new Source(base);
+		Node mountains = new ScaleBias(new Abs(noise), -1.5, 1);
+		Node plains = new ScaleBias(noise, 0.25, -0.5);
+		Node control = turbulence(new Source(perlin(seed, 4, base.getFrequency() / 4)), seed + 1, base.getFrequency(), 32, 3);
+		return new Select(plains, mountains, control, 0, 1000, 0.25);
+	}
+
+	public sealed interface Node permits Source, Constant, ScaleBias, Add, Multiply, Abs, Clamp, Select, Turbulence {
+		double get(double x, double y, double z);
+	}
+
+	// The module must be safe to use from several threads
+	public record Source(Module module) implements Node {
+		public Source {
+			if (module == null)
+				throw new IllegalArgumentException("module");
+		}
+
+		@Override
+		public double get(double x, double y, double z) {
+			return this.module.get(x, y, z);
+		}
+	}
+
+	public record Constant(double value) implements Node {
+		@Override
+		public double get(double x, double y, double z) {
+			return this.value;
+		}
+	}
+
+	public record ScaleBias(Node source, double scale, double bias) implements Node {
+		public ScaleBias {
+			if (source == null)
+				throw new IllegalArgumentException("source");
+		}
+
+		@Override
+		public double get(double x, double y, double z) {
+			return this.source.get(x, y, z) * this.scale + this.bias;
+		}
+	}
+
+	public record Add(Node a, Node b) implements Node {
+		public Add {
+			if (a == null)
+				throw new IllegalArgumentException("a");
+			if (b == null)
+				throw new IllegalArgumentException("b");
+		}
+
+		@Override
+		public double get(double x, double y, double z) {
+			return this.a.get(x, y, z) + this.b.get(x, y, z);
+		}
+	}
+
+	public record Multiply(Node a, Node b) implements Node {
+		public Multiply {
+			if (a == null)
+				throw new IllegalArgumentException("a");
+			if (b == null)
+				throw new IllegalArgumentException("b");
+		}
+
+		@Override
+		public double get(double x, double y, double z) {
+			return this.a.get(x, y, z) * this.b.get(x, y, z);
+		}
+	}
+
+	public record Abs(Node source) implements Node {
+		public Abs {
+			if (source == null)
+				throw new IllegalArgumentException("source");
+		}
+
+		@Override
+		public double get(double x, double y, double z) {
+			return Math.abs(this.source.get(x, y, z));
+		}
+	}
+
+	public record Clamp(Node source, double lower, double upper) implements Node {
+		public Clamp {
+			if (source == null)
+				throw new IllegalArgumentException("source");
+			if (!(lower <= upper))
+				throw new IllegalArgumentException("upper");
+		}
+
+		@Override
+		public double get(double x, double y, double z) {
+			return Math.min(Math.max(this.source.get(x, y, z), this.lower), this.upper);
+		}
+	}
+
+	// b where the control is within the bounds and a elsewhere, with a smooth transition of half-width falloff at the bounds
+	public record Select(Node a, Node b, Node control, double lower, double upper, double falloff) implements Node {
+		public Select {
+			if (a == null)
+				throw new IllegalArgumentException("a");
+			if (b == null)
+				throw new IllegalArgumentException("b");
+			if (control == null)
+				throw new IllegalArgumentException("control");
+			if (!(lower <= upper))
+				throw new IllegalArgumentException("upper");
+			if (!(falloff >= 0 && falloff <= (upper - lower) / 2))
+				throw new IllegalArgumentException("falloff");
+		}
+
+		@Override
+		public double get(double x, double y, double z) {
+			double alpha = alpha(this.control.get(x, y, z), this.lower, this.upper, this.falloff);
+			if (alpha == 0)
+				return this.a.get(x, y, z);
+			if (alpha == 1)
+				return this.b.get(x, y, z);
+			return mix(this.a.get(x, y, z), this.b.get(x, y, z), alpha);
+		}
+
+		// Weight of b for a value of the control
+		static double alpha(double control, double lower, double upper, double falloff) {
+			if (falloff > 0) {
+				if (control < lower - falloff)
+					return 0;
+				if (control < lower + falloff)
+					return curve((control - (lower - falloff)) / (2 * falloff));
+				if (control < upper - falloff)
+					return 1;
+				if (control < upper + falloff)
+					return 1 - curve((control - (upper - falloff)) / (2 * falloff));
+				return 0;
+			}
+			return control < lower || control > upper ? 0 : 1;
+		}
+
+		private static double curve(double a) {
+			return a * a * (3 - 2 * a);
+		}
+
+		static double mix(double a, double b, double alpha) {
+			return (1 - alpha) * a + alpha * b;
+		}
+	}
+
+	// The source is sampled at the point moved by the distortions times the power
+	public record Turbulence(Node source, Node xDistort, Node yDistort, Node zDistort, double power) implements Node {
+		public Turbulence {
+			if (source == null)
+				throw new IllegalArgumentException("source");
+			if (xDistort == null)
+				throw new IllegalArgumentException("xDistort");
+			if (yDistort == null)
+				throw new IllegalArgumentException("yDistort");
+			if (zDistort == null)
+				throw new IllegalArgumentException("zDistort");
+		}
+
+		@Override
+		public double get(double x, double y, double z) {
+			double[] o = TURBULENCE_OFFSETS;
+			return this.source.get(x + this.xDistort.get(x + o[0], y + o[1], z + o[2]) * this.power,
+					y + this.yDistort.get(x + o[3], y + o[4], z + o[5]) * this.power,
+					z + this.zDistort.get(x + o[6], y + o[7], z + o[8]) * this.power);
+		}
+	}
+
+	/**
+	 * A graph flattened into operations on rows of values, each node has a slot holding its values for the current row.
+	 * The points of a row are described by a context: the points of the row itself, the row shifted by a constant,
+	 * or arbitrary points moved by a turbulence. Equal nodes in the same context share their slot.
+	 * Nodes are compared by the slots of their children, so that a graph sharing nodes is compiled in linear time.
+	 */
+	private static final class Program implements RowSampler {
+		private final List<Operation> operations = new ArrayList<>();
+		private final Map<Object, Integer> slots = new HashMap<>(), contexts = new HashMap<>();
+		private final List<Boolean> rowContexts = new ArrayList<>();
+		// Slots of the nodes already compiled, per context
+		private final List<Map<Node, Integer>> compiled = new ArrayList<>();
+		private final int result;
+		private final ThreadLocal<Frame> frames;
+		private int slotCount;
+
+		Program(Node root) {
+			this.rowContexts.add(true);
+			this.compiled.add(new IdentityHashMap<>());
+			this.result = compile(root, 0);
+
+			int slotCount = this.slotCount;
+			boolean[] rows = new boolean[this.rowContexts.size()];
+			for (int i = 0; i < rows.length; i++)
+				rows[i] = this.rowContexts.get(i);
+			this.frames = ThreadLocal.withInitial(() -> new Frame(slotCount, rows));
+		}
+
+		private int compile(Node node, int context) {
+			Map<Node, Integer> compiled = this.compiled.get(context);
+			Integer existing = compiled.get(node);
+			if (existing != null)
+				return existing;
+
+			int slot = compileOperation(node, context);
+			compiled.put(node, slot);
+			return slot;
+		}
+
+		private int compileOperation(Node node, int context) {
+			if (node instanceof Turbulence t) {
+				// The distortions are rows shifted by constants, the source is sampled at arbitrary points
+				double[] o = TURBULENCE_OFFSETS;
+				int dx = compile(t.xDistort, shift(context, o[0], o[1], o[2]));
+				int dy = compile(t.yDistort, shift(context, o[3], o[4], o[5]));
+				int dz = compile(t.zDistort, shift(context, o[6], o[7], o[8]));
+				int moved = move(context, dx, dy, dz, t.power);
+
+				// The turbulence has the values of its source
+				return compile(t.source, moved);
+			}
+
+			// The children are compiled first, equal operations on the same slots share their slot
+			Object key;
+			int a = -1, b = -1, c = -1;
+			if (node instanceof ScaleBias sb) {
+				a = compile(sb.source, context);
+				key = new OperationKey(context, node.getClass(), a, b, c, sb.scale, sb.bias, 0);
+			} else if (node instanceof Add add) {
+				a = compile(add.a, context);
+				b = compile(add.b, context);
+				key = new OperationKey(context, node.getClass(), a, b, c, 0, 0, 0);
+			} else if (node instanceof Multiply mul) {
+				a = compile(mul.a, context);
+				b = compile(mul.b, context);
+				key = new OperationKey(context, node.getClass(), a, b, c, 0, 0, 0);
+			} else if (node instanceof Abs abs) {
+				a = compile(abs.source, context);
+				key = new OperationKey(context, node.getClass(), a, b, c, 0, 0, 0);
+			} else if (node instanceof Clamp cl) {
+				a = compile(cl.source, context);
+				key = new OperationKey(context, node.getClass(), a, b, c, cl.lower, cl.upper, 0);
+			} else if (node instanceof Select s) {
+				a = compile(s.a, context);
+				b = compile(s.b, context);
+				c = compile(s.control, context);
+				key = new OperationKey(context, node.getClass(), a, b, c, s.lower, s.upper, s.falloff);
+			} else {
+				// Sources and constants have no children
+				key = new LeafKey(node, context);
+			}
+
+			Integer existing = this.slots.get(key);
+			if (existing != null)
+				return existing;
+
+			int slot = this.slotCount++;
+			this.slots.put(key, slot);
+			this.operations.add(operation(node, context, slot, a, b, c));
+			return slot;
+		}
+
+		private Operation operation(Node node, int context, int slot, int a, int b, int c) {
+			if (node instanceof Source s) {
+				if (this.rowContexts.get(context)) {
+					RowSampler sampler = s.module instanceof Perlin p ? BatchPerlin.of(p) : RowSampler.of(s.module);
+					return (f, count) -> sampler.get(f.cx[context], f.cy[context], f.cz[context], f.step, count, f.values[slot], 0);
+				}
+
+				// Nothing is shared between arbitrary points, a batch would cost more than the module itself
+				Module module = s.module;
+				return (f, count) -> {
+					double[] x = f.px[context], y = f.py[context], z = f.pz[context], out = f.values[slot];
+					for (int i = 0; i < count; i++)
+						out[i] = module.get(x[i], y[i], z[i]);
+				};
+			}
+			if (node instanceof Constant cst) {
+				double value = cst.value;
+				return (f, count) -> Arrays.fill(f.values[slot], 0, count, value);
+			}
+			if (node instanceof ScaleBias sb) {
+				double scale = sb.scale, bias = sb.bias;
+				return (f, count) -> {
+					double[] in = f.values[a], out = f.values[slot];
+					for (int i = 0; i < count; i++)
+						out[i] = in[i] * scale + bias;
+				};
+			}
+			if (node instanceof Add) {
+				return (f, count) -> {
+					double[] va = f.values[a], vb = f.values[b], out = f.values[slot];
+					for (int i = 0; i < count; i++)
+						out[i] = va[i] + vb[i];
+				};
+			}
+			if (node instanceof Multiply) {
+				return (f, count) -> {
+					double[] va = f.values[a], vb = f.values[b], out = f.values[slot];
+					for (int i = 0; i < count; i++)
+						out[i] = va[i] * vb[i];
+				};
+			}
+			if (node instanceof Abs) {
+				return (f, count) -> {
+					double[] in = f.values[a], out = f.values[slot];
+					for (int i = 0; i < count; i++)
+						out[i] = Math.abs(in[i]);
+				};
+			}
+			if (node instanceof Clamp cl) {
+				double lower = cl.lower, upper = cl.upper;
+				return (f, count) -> {
+					double[] in = f.values[a], out = f.values[slot];
+					for (int i = 0; i < count; i++)
+						out[i] = Math.min(Math.max(in[i], lower), upper);
+				};
+			}
+
+			// Both sources are computed for the whole row, the walk only computes the selected one
+			Select s = (Select) node;
+			double lower = s.lower, upper = s.upper, falloff = s.falloff;
+			return (f, count) -> {
+				double[] va = f.values[a], vb = f.values[b], vc = f.values[c], out = f.values[slot];
+				for (int i = 0; i < count; i++) {
+					double alpha = Select.alpha(vc[i], lower, upper, falloff);
+					out[i] = alpha == 0 ? va[i] : alpha == 1 ? vb[i] : Select.mix(va[i], vb[i], alpha);
+				}
+			};
+		}
+
+		private int addContext(Object key, boolean row) {
+			int context = this.rowContexts.size();
+			this.contexts.put(key, context);
+			this.rowContexts.add(row);
+			this.compiled.add(new IdentityHashMap<>());
+			return context;
+		}
+
+		// A shift keeps a row a row
+		private int shift(int parent, double ox, double oy, double oz) {
+			ShiftKey key = new ShiftKey(parent, ox, oy, oz);
+			Integer existing = this.contexts.get(key);
+			if (existing != null)
+				return existing;
+
+			boolean row = this.rowContexts.get(parent);
+			int context = addContext(key, row);
+			this.operations.add((f, count) -> {
+				if (row) {
+					f.cx[context] = f.cx[parent] + ox;
+					f.cy[context] = f.cy[parent] + oy;
+					f.cz[context] = f.cz[parent] + oz;
+				} else {
+					double[] x = f.px[context], y = f.py[context], z = f.pz[context];
+					for (int i = 0; i < count; i++) {
+						x[i] = f.px[parent][i] + ox;
+						y[i] = f.py[parent][i] + oy;
+						z[i] = f.pz[parent][i] + oz;
+					}
+				}
+			});
+			return context;
+		}
+
+		private int move(int parent, int dx, int dy, int dz, double power) {
+			MoveKey key = new MoveKey(parent, dx, dy, dz, power);
+			Integer existing = this.contexts.get(key);
+			if (existing != null)
+				return existing;
+
+			int context = addContext(key, false);
+			this.operations.add((f, count) -> {
+				double[] x = f.px[context], y = f.py[context], z = f.pz[context], vx = f.values[dx], vy = f.values[dy], vz = f.values[dz];
+				for (int i = 0; i < count; i++) {
+					x[i] = f.x(parent, i) + vx[i] * power;
+					y[i] = f.y(parent, i) + vy[i] * power;
+					z[i] = f.z(parent, i) + vz[i] * power;
+				}
+			});
+			return context;
+		}
+
+		@Override
+		public void get(double x, double y, double z, double step, int count, double[] out, int offset) {
+			Frame frame = this.frames.get();
+			frame.ensureCapacity(count);
+			frame.cx[0] = x;
+			frame.cy[0] = y;
+			frame.cz[0] = z;
+			frame.step = step;
+
+			for (Operation operation : this.operations)
+				operation.run(frame, count);
+			System.arraycopy(frame.values[this.result], 0, out, offset, count);
+		}
+
+		private record LeafKey(Node node, int context) {}
+
+		private record OperationKey(int context, Class<?> type, int a, int b, int c, double p, double q, double r) {}
+
+		private record ShiftKey(int parent, double ox, double oy, double oz) {}
+
+		private record MoveKey(int parent, int dx, int dy, int dz, double power) {}
+	}
+
+	@FunctionalInterface
+	private interface Operation {
+		void run(Frame frame, int count);
+	}
+
+	// The values of the slots and the points of the contexts for the row being computed by a thread
+	private static final class Frame {
+		final boolean[] row;
+		final double[] cx, cy, cz;
+		final double[][] px, py, pz;
+		double[][] values;
+		double step;
+		int capacity;
+
+		Frame(int slots, boolean[] row) {
+			this.row = row;
+			this.cx = new double[row.length];
+			this.cy = new double[row.length];
+			this.cz = new double[row.length];
+			this.px = new double[row.length][];
+			this.py = new double[row.length][];
+			this.pz = new double[row.length][];
+			this.values = new double[slots][];
+		}
+
+		void ensureCapacity(int count) {
+			if (count <= this.capacity)
+				return;
+
+			for (int i = 0; i < this.values.length; i++)
+				this.values[i] = new double[count];
+			for (int c = 0; c < this.row.length; c++) {
+				if (!this.row[c]) {
+					this.px[c] = new double[count];
+					this.py[c] = new double[count];
+					this.pz[c] = new double[count];
+				}
+			}
+			this.capacity = count;
+		}
+
+		double x(int context, int i) {
+			return this.row[context] ? this.cx[context] + i * this.step : this.px[context][i];
+		}
+
+		double y(int context, int i) {
+			return this.row[context] ? this.cy[context] : this.py[context][i];
+		}
+
+		double z(int context, int i) {
+			return this.row[context] ? this.cz[context] : this.pz[context][i];
+		}
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unbounded map of a noise in gray levels, generated by square chunks on background threads.
+ * A chunk of level l has a sample every 2^l units, coarser levels are used when zoomed out.
+ * Chunks are kept in a least recently used cache bounded in memory, the chunks next to the view are generated ahead
+ * in the direction of movement. The gray levels use a range estimated once for the world so that a chunk looks the same wherever it is shown.
+ */
+public class NoiseMap {
+	public static final int CHUNK_SIZE = 128, MAX_LEVEL = 12;
+	public static final int BACKGROUND = 0xFF202020;
+	private static final long ENTRY_OVERHEAD = 64;
+
+	public final RowSampler sampler;
+	public final double z, min, max;
+	public final long maxBytes;
+
+	private final Runnable listener;
+	private final ThreadPoolExecutor executor;
+	private final LinkedHashMap<Key, int[]> chunks = new LinkedHashMap<>(256, 0.75f, true);
+	private final Set<Key> pending = ConcurrentHashMap.newKeySet();
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile Set<Key> wanted = Set.of();
+	private long bytes;
+	private double lastX = Double.NaN, lastY = Double.NaN;
+	private int lastLevel = -1;
+
+	// The listener is called from a worker thread each time a chunk is ready
+	public NoiseMap(RowSampler sampler, double z, int threads, long maxBytes, Runnable listener) {
+		if (sampler == null)
+			throw new IllegalArgumentException("sampler");
+		if (threads <= 0)
+			throw new IllegalArgumentException("threads");
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("maxBytes");
+		if (listener == null)
+			throw new IllegalArgumentException("listener");
+
+		this.sampler = sampler;
+		this.z = z;
+		this.maxBytes = maxBytes;
+		this.listener = listener;
+
+		// Rows spread far apart give a range that does not depend on where the map is looked at
+		SplittableRandom random = new SplittableRandom(0);
+		double[] row = new double[256];
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for (int n = 0; n < 64; n++) {
+			sampler.get(Math.floor(random.nextDouble(-1e6, 1e6)), Math.floor(random.nextDouble(-1e6, 1e6)), z, 1, row.length, row, 0);
+			for (double value : row) {
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+		}
+		this.min = min;
+		this.max = max > min ? max : min + 1;
+
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), r -> {
+			Thread t = new Thread(r, "Noise map worker");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	// The coarsest level whose samples are not larger than a pixel, they are between half a pixel and a pixel apart
+	public static int getLevel(double zoom) {
+		if (zoom <= 0)
+			throw new IllegalArgumentException("zoom");
+		return Math.min(Math.max((int) Math.floor(-Math.log(zoom) / Math.log(2)), 0), MAX_LEVEL);
+	}
+
+	// Fills the view whose top left corner is at (originX, originY) with zoom pixels per unit.
+	// Missing chunks are requested and replaced meanwhile by a coarser chunk of the cache, if any.
+	// Returns whether all visible chunks were available. Not thread-safe, the view is expected to be rendered from a single thread.
+	public boolean render(double originX, double originY, double zoom, int width, int height, int[] argb) {
+		if (zoom <= 0)
+			throw new IllegalArgumentException("zoom");
+
+		int level = getLevel(zoom);
+		double size = (double) CHUNK_SIZE * (1 << level);
+		long cx0 = (long) Math.floor(originX / size), cx1 = (long) Math.floor((originX + width / zoom) / size);
+		long cy0 = (long) Math.floor(originY / size), cy1 = (long) Math.floor((originY + height / zoom) / size);
+
+		Set<Key> wanted = new HashSet<>();
+		List<Key> missing = new ArrayList<>();
+		int[] columns = new int[width];
+
+		for (long cy = cy0; cy <= cy1; cy++) {
+			for (long cx = cx0; cx <= cx1; cx++) {
+				Key key = new Key(level, cx, cy);
+				wanted.add(key);
+
+				int px0 = bound(cx * size, originX, zoom, width), px1 = bound((cx + 1) * size, originX, zoom, width);
+				int py0 = bound(cy * size, originY, zoom, height), py1 = bound((cy + 1) * size, originY, zoom, height);
+				if (px0 >= px1 || py0 >= py1)
+					continue;
+
+				int[] chunk = get(key);
+				if (chunk != null) {
+					draw(argb, width, px0, px1, py0, py1, chunk, key, originX, originY, zoom, columns);
+					continue;
+				}
+
+				missing.add(key);
+				drawCoarser(argb, width, px0, px1, py0, py1, key, originX, originY, zoom, columns);
+			}
+		}
+
+		// The nearest chunks are requested first
+		double centerX = (originX + width / zoom / 2) / size - 0.5, centerY = (originY + height / zoom / 2) / size - 0.5;
+		missing.sort(Comparator.comparingDouble(k -> Math.abs(k.x - centerX) + Math.abs(k.y - centerY)));
+
+		// One ring of chunks on the sides the view is moving to
+		List<Key> ahead = new ArrayList<>();
+		if (level == this.lastLevel) {
+			double dx = originX - this.lastX, dy = originY - this.lastY;
+			if (dx != 0) {
+				long cx = dx > 0 ? cx1 + 1 : cx0 - 1;
+				for (long cy = cy0; cy <= cy1; cy++)
+					ahead.add(new Key(level, cx, cy));
+			}
+			if (dy != 0) {
+				long cy = dy > 0 ? cy1 + 1 : cy0 - 1;
+				for (long cx = cx0; cx <= cx1; cx++)
+					ahead.add(new Key(level, cx, cy));
+			}
+		}
+		this.lastX = originX;
+		this.lastY = originY;
+		this.lastLevel = level;
+
+		wanted.addAll(ahead);
+		this.wanted = wanted;
+
+		for (Key key : missing)
+			request(key, 0);
+		for (Key key : ahead) {
+			if (get(key) == null)
+				request(key, 1);
+		}
+		return missing.isEmpty();
+	}
+
+	// First pixel whose center is at or after the given coordinate
+	private static int bound(double coordinate, double origin, double zoom, int length) {
+		double p = Math.ceil((coordinate - origin) * zoom - 0.5);
+		return (int) Math.min(Math.max(p, 0), length);
+	}
+
+	private static void draw(int[] argb, int width, int px0, int px1, int py0, int py1, int[] chunk, Key key, double originX, double originY, double zoom, int[] columns) {
+		double unit = 1 << key.level;
+		long firstX = key.x * CHUNK_SIZE, firstY = key.y * CHUNK_SIZE;
+
+		for (int px = px0; px < px1; px++)
+			columns[px] = sample(originX + (px + 0.5) / zoom, unit, firstX);
+
+		for (int py = py0; py < py1; py++) {
+			int offset = sample(originY + (py + 0.5) / zoom, unit, firstY) * CHUNK_SIZE;
+			for (int px = px0, p = py * width + px0; px < px1; px++, p++)
+				argb[p] = chunk[offset + columns[px]];
+		}
+	}
+
+	// Index of the sample of a chunk nearest to a coordinate, the rounding at the edges of the chunk is clamped
+	private static int sample(double coordinate, double unit, long first) {
+		return (int) Math.min(Math.max(Math.floor(coordinate / unit) - first, 0), CHUNK_SIZE - 1);
+	}
+
+	private void drawCoarser(int[] argb, int width, int px0, int px1, int py0, int py1, Key key, double originX, double originY, double zoom, int[] columns) {
+		for (int level = key.level + 1; level <= MAX_LEVEL; level++) {
+			int shift = level - key.level;
+			Key parent = new Key(level, key.x >> shift, key.y >> shift);
+			int[] chunk = get(parent);
+			if (chunk != null) {
+				draw(argb, width, px0, px1, py0, py1, chunk, parent, originX, originY, zoom, columns);
+				return;
+			}
+		}
+
+		for (int py = py0; py < py1; py++) {
+			for (int px = px0, p = py * width + px0; px < px1; px++, p++)
+				argb[p] = BACKGROUND;
+		}
+	}
+
+	private void request(Key key, int priority) {
+		if (this.pending.add(key))
+			this.executor.execute(new ChunkTask(key, priority, this.sequence.getAndIncrement()));
+	}
+
+	private int[] generate(Key key) {
+		double unit = 1 << key.level, factor = 255 / (this.max - this.min);
+		double[] row = new double[CHUNK_SIZE];
+		int[] argb = new int[CHUNK_SIZE * CHUNK_SIZE];
+
+		for (int j = 0, p = 0; j < CHUNK_SIZE; j++) {
+			this.sampler.get(key.x * CHUNK_SIZE * unit, (key.y * CHUNK_SIZE + j) * unit, this.z, unit, CHUNK_SIZE, row, 0);
+			for (int i = 0; i < CHUNK_SIZE; i++, p++) {
+				int gray = (int) Math.min(Math.max((row[i] - this.min) * factor + 0.5, 0), 255);
+				argb[p] = EscapeTimeFractal.BLACK | 0x010101 * gray;
+			}
+		}
+		return argb;
+	}
+
+	public synchronized int[] get(Key key) {
+		return this.chunks.get(key);
+	}
+
+	private synchronized void put(Key key, int[] chunk) {
+		int[] previous = this.chunks.put(key, chunk);
+		if (previous != null)
+			this.bytes -= size(previous);
+		this.bytes += size(chunk);
+
+		Iterator<int[]> it = this.chunks.values().iterator();
+		while (this.bytes > this.maxBytes && it.hasNext()) {
+			this.bytes -= size(it.next());
+			it.remove();
+		}
+	}
+
+	public synchronized int getChunkCount() {
+		return this.chunks.size();
+	}
+
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	private static long size(int[] chunk) {
+		return chunk.length * 4L + ENTRY_OVERHEAD;
+	}
+
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	// Chunk (x, y) of a level covers the samples from (x, y) * CHUNK_SIZE included to (x + 1, y + 1) * CHUNK_SIZE excluded
+	public record Key(int level, long x, long y) {}
+
+	private class ChunkTask implements Runnable, Comparable<ChunkTask> {
+		private final Key key;
+		private final int priority;
+		private final long sequence;
+
+		ChunkTask(Key key, int priority, long sequence) {
+			this.key = key;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public void run() {
+			try {
+				// The view moved away before the chunk was started
+				if (!NoiseMap.this.wanted.contains(this.key) || get(this.key) != null)
+					return;
+				put(this.key, generate(this.key));
+			} finally {
+				NoiseMap.this.pending.remove(this.key);
+			}
+			NoiseMap.this.listener.run();
+		}
+
+		@Override
+		public int compareTo(ChunkTask o) {
+			if (this.priority != o.priority)
+				return Integer.compare(this.priority, o.priority);
+			return Long.compare(this.sequence, o.sequence);
+		}
+	}
+}
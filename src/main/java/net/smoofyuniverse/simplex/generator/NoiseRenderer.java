@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders frames of a noise module in gray levels, rows are split across the workers of the pool.
+ * Buffers are allocated once, a frame allocates nothing but its tasks.
+ * Values are normalized with the range of all the frames rendered so far so that the brightness does not flicker.
+ */
+public class NoiseRenderer {
+	public static final int MIN_ROWS = 4;
+
+	public final int width, height;
+	private final ForkJoinPool pool;
+
+	private final double[] values, rowMin, rowMax;
+	private final int[] argb;
+	private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+	public NoiseRenderer(ForkJoinPool pool, int width, int height) {
+		if (pool == null)
+			throw new IllegalArgumentException("pool");
+		if (width <= 0)
+			throw new IllegalArgumentException("width");
+		if (height <= 0)
+			throw new IllegalArgumentException("height");
+
+		this.pool = pool;
+		this.width = width;
+		this.height = height;
+		this.values = new double[width * height];
+		this.rowMin = new double[height];
+		this.rowMax = new double[height];
+		this.argb = new int[width * height];
+	}
+
+	// The sampler is given one row at a time starting at (0, y, z), it must be safe to use from several threads.
+	// The colors given to the writer are overwritten by the next frame.
+	public void render(RowSampler sampler, double z, ArgbWriter writer) {
+		invoke(new SampleTask(sampler, z, 0, this.height));
+
+		// Second stage of the reduction, one value per row
+		double min = this.min, max = this.max;
+		for (int y = 0; y < this.height; y++) {
+			min = Math.min(min, this.rowMin[y]);
+			max = Math.max(max, this.rowMax[y]);
+		}
+		this.min = min;
+		this.max = max;
+
+		invoke(new ColorTask(0, this.height));
+		writer.setPixels(0, 0, this.width, this.height, this.argb, 0, this.width);
+	}
+
+	private void invoke(ForkJoinTask<?> task) {
+		if (ForkJoinTask.getPool() == this.pool)
+			task.invoke();
+		else
+			this.pool.invoke(task);
+	}
+
+	// Forgets the range of the previous frames, to be called by the rendering thread when the noise changes
+	public void reset() {
+		this.min = Double.POSITIVE_INFINITY;
+		this.max = Double.NEGATIVE_INFINITY;
+	}
+
+	public double getMin() {
+		return this.min;
+	}
+
+	public double getMax() {
+		return this.max;
+	}
+
+	private abstract class RowTask extends RecursiveAction {
+		final int minY, maxY;
+
+		RowTask(int minY, int maxY) {
+			this.minY = minY;
+			this.maxY = maxY;
+		}
+
+		@Override
+		protected void compute() {
+			int rows = this.maxY - this.minY;
+			if (rows >= 2 * MIN_ROWS && getSurplusQueuedTaskCount() <= EscapeTimeFractal.SURPLUS_THRESHOLD) {
+				int midY = this.minY + rows / 2;
+				invokeAll(split(this.minY, midY), split(midY, this.maxY));
+				return;
+			}
+
+			for (int y = this.minY; y < this.maxY; y++)
+				computeRow(y);
+		}
+
+		abstract RowTask split(int minY, int maxY);
+
+		abstract void computeRow(int y);
+	}
+
+	private class SampleTask extends RowTask {
+		private final RowSampler sampler;
+		private final double z;
+
+		SampleTask(RowSampler sampler, double z, int minY, int maxY) {
+			super(minY, maxY);
+			this.sampler = sampler;
+			this.z = z;
+		}
+
+		@Override
+		RowTask split(int minY, int maxY) {
+			return new SampleTask(this.sampler, this.z, minY, maxY);
+		}
+
+		@Override
+		void computeRow(int y) {
+			double[] values = NoiseRenderer.this.values;
+			int width = NoiseRenderer.this.width, offset = y * width;
+			this.sampler.get(0, y, this.z, 1, width, values, offset);
+
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for (int p = offset; p < offset + width; p++) {
+				min = Math.min(min, values[p]);
+				max = Math.max(max, values[p]);
+			}
+
+			NoiseRenderer.this.rowMin[y] = min;
+			NoiseRenderer.this.rowMax[y] = max;
+		}
+	}
+
+	private class ColorTask extends RowTask {
+		ColorTask(int minY, int maxY) {
+			super(minY, maxY);
+		}
+
+		@Override
+		RowTask split(int minY, int maxY) {
+			return new ColorTask(minY, maxY);
+		}
+
+		@Override
+		void computeRow(int y) {
+			double[] values = NoiseRenderer.this.values;
+			int[] argb = NoiseRenderer.this.argb;
+			double min = NoiseRenderer.this.min, factor = 255 / (NoiseRenderer.this.max - min);
+
+			for (int x = 0, p = y * NoiseRenderer.this.width; x < NoiseRenderer.this.width; x++, p++)
+				argb[p] = EscapeTimeFractal.BLACK | 0x010101 * (int) ((values[p] - min) * factor + 0.5);
+		}
+	}
+}
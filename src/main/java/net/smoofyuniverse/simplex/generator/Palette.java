@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+/**
+ * Maps iteration counts to ARGB colors through a lookup table.
+ * Counts above the size of the table take its last color, so a palette also recolors a buffer computed with a higher budget.
+ */
+public final class Palette {
+	// Color mappings
+	public static final int LINEAR = 0, SQRT = 1, SQUARE = 2;
+
+	// The color of the count c is at c - 1
+	public final int[] colors;
+
+	public Palette(int[] colors) {
+		if (colors == null || colors.length == 0)
+			throw new IllegalArgumentException("colors");
+		this.colors = colors;
+	}
+
+	public static Palette create(int mode, int maxIterations) {
+		if (maxIterations <= 0)
+			throw new IllegalArgumentException("maxIterations");
+
+		int[] colors = new int[maxIterations];
+		for (int i = 0; i < maxIterations; i++) {
+			double t = i / (double) maxIterations;
+			colors[i] = EscapeTimeFractal.argb(switch (mode) {
+				case LINEAR -> t;
+				case SQRT -> Math.sqrt(t);
+				case SQUARE -> t * t;
+				default -> throw new IllegalArgumentException("mode");
+			}, 0, 0);
+		}
+		colors[maxIterations - 1] = EscapeTimeFractal.BLACK;
+		return new Palette(colors);
+	}
+
+	public int get(int count) {
+		return this.colors[Math.min(count, this.colors.length) - 1];
+	}
+
+	// Kept apart from the escape-time loop so that recoloring never iterates again
+	public void apply(int[] counts, int from, int[] argb, int offset, int length) {
+		int[] colors = this.colors;
+		int n = colors.length;
+		for (int i = 0; i < length; i++)
+			argb[offset + i] = colors[Math.min(counts[from + i], n) - 1];
+	}
+
+	// Smooth values are interpolated between the colors of the surrounding counts
+	public void apply(float[] values, int from, int[] argb, int offset, int length) {
+		for (int i = 0; i < length; i++)
+			argb[offset + i] = get(values[from + i]);
+	}
+
+	public int get(float value) {
+		int n = this.colors.length;
+		if (!(value < n))
+			return this.colors[n - 1];
+		if (!(value > 1))
+			return this.colors[0];
+
+		int c = (int) value;
+		float t = value - c;
+		int a = this.colors[c - 1], b = this.colors[c];
+		return EscapeTimeFractal.BLACK | lerp(a >> 16 & 0xFF, b >> 16 & 0xFF, t) << 16 | lerp(a >> 8 & 0xFF, b >> 8 & 0xFF, t) << 8 | lerp(a & 0xFF, b & 0xFF, t);
+	}
+
+	private static int lerp(int a, int b, float t) {
+		return Math.round(a + (b - a) * t);
+	}
+}
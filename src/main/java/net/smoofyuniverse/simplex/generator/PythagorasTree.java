@@ -66,21 +66,22 @@ public class PythagorasTree {
 		if (initialLength <= 0)
 			throw new IllegalArgumentException("initialLength");
 
-		Paint stroke = h.graphics.getStroke();
-		double lw = h.graphics.getLineWidth();
+		Paint stroke = h.stroke;
+		double lw = h.lineWidth;
 
 		_generate(h, n, initialWidth, initialLength);
+		h.flush();
 
-		h.graphics.setStroke(stroke);
-		h.graphics.setLineWidth(lw);
+		h.stroke = stroke;
+		h.lineWidth = lw;
 	}
 
 	private void _generate(PathHelper h, int n, double width, double length) {
 		if (n == -1)
 			return;
 
-		h.graphics.setStroke(getColor(n));
-		h.graphics.setLineWidth(width);
+		h.stroke = getColor(n);
+		h.lineWidth = width;
 		h.move(length, true);
 
 		n--;
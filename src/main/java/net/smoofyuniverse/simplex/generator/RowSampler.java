@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import org.spongepowered.noise.module.Module;
+
+/**
+ * Samples a noise on a row of evenly spaced points along x, so that the work shared by neighbors is done once.
+ */
+@FunctionalInterface
+public interface RowSampler {
+
+	// Fills out[offset + i] with the value at (x + i * step, y, z) for i from 0 to count - 1
+	void get(double x, double y, double z, double step, int count, double[] out, int offset);
+
+	// One call per point, for modules without a batch evaluator
+	static RowSampler of(Module module) {
+		return (x, y, z, step, count, out, offset) -> {
+			for (int i = 0; i < count; i++)
+				out[offset + i] = module.get(x + i * step, y, z);
+		};
+	}
+}
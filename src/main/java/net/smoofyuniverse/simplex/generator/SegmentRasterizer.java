@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import net.smoofyuniverse.simplex.util.PngWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws anti-aliased segments of any width into an opaque ARGB image, without the canvas of JavaFX.
+ * Paths are queued then drawn in order by render, the image is split into bands of rows rasterized in parallel
+ * and each band only visits the pieces of paths that cross it.
+ * The coverage of the segments of a path is merged before blending so that the joints are not drawn twice.
+ * Paths have square caps like the lines of the canvas. Those thinner than a pixel are drawn one pixel wide and faded,
+ * their segments meet without caps and their coverage adds up, so that a curve crumpled within a pixel keeps its weight.
+ */
+public class SegmentRasterizer {
+	public static final int BAND_HEIGHT = 32, PIECE_SIZE = 256;
+	private static final double SQRT_2 = Math.sqrt(2);
+
+	public final int width, height;
+	private final ForkJoinPool pool;
+	private final int[] argb;
+
+	// Points of the queued paths as x, y pairs, the path i goes from the point pathStart[i] to pathStart[i + 1] excluded
+	private float[] points = new float[1024];
+	private int pointCount;
+	private int[] pathStart = new int[65], colors = new int[64];
+	private float[] widths = new float[64];
+	private int pathCount;
+
+	// Built by render, the pieces of paths crossing the band b are bandPieces[bandStart[b]] to bandPieces[bandStart[b + 1]] excluded
+	private int[] piecePath, pieceStart, bandStart, bandPieces;
+
+	public SegmentRasterizer(ForkJoinPool pool, int width, int height) {
+		if (pool == null)
+			throw new IllegalArgumentException("pool");
+		if (width <= 0)
+			throw new IllegalArgumentException("width");
+		if (height <= 0)
+			throw new IllegalArgumentException("height");
+
+		this.pool = pool;
+		this.width = width;
+		this.height = height;
+		this.argb = new int[width * height];
+		clear(0xFFFFFF);
+	}
+
+	// Whether an image of this size can be allocated now, with a margin for the paths
+	public static boolean fitsInMemory(int width, int height) {
+		Runtime runtime = Runtime.getRuntime();
+		long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		return (long) width * height <= Integer.MAX_VALUE && (long) width * height * 5 < free;
+	}
+
+	public void clear(int rgb) {
+		Arrays.fill(this.argb, EscapeTimeFractal.BLACK | rgb);
+	}
+
+	// The points are count x, y pairs starting at offset, the color is not premultiplied
+	public void addPath(double[] points, int offset, int count, int color, double lineWidth) {
+		if (points == null)
+			throw new IllegalArgumentException("points");
+		if (count < 2 || offset < 0 || offset + 2 * count > points.length)
+			throw new IllegalArgumentException("count");
+		if (!(lineWidth >= 0))
+			throw new IllegalArgumentException("lineWidth");
+
+		if (this.pointCount + count > this.points.length / 2)
+			this.points = Arrays.copyOf(this.points, Math.max(this.points.length * 2, (this.pointCount + count) * 2));
+		for (int i = 0, j = this.pointCount * 2; i < 2 * count; i++, j++)
+			this.points[j] = (float) points[offset + i];
+
+		if (this.pathCount == this.colors.length) {
+			this.colors = Arrays.copyOf(this.colors, this.pathCount * 2);
+			this.widths = Arrays.copyOf(this.widths, this.pathCount * 2);
+			this.pathStart = Arrays.copyOf(this.pathStart, this.pathCount * 2 + 1);
+		}
+		this.colors[this.pathCount] = color;
+		this.widths[this.pathCount] = (float) lineWidth;
+		this.pathStart[this.pathCount] = this.pointCount;
+		this.pointCount += count;
+		this.pathStart[++this.pathCount] = this.pointCount;
+	}
+
+	public int getPathCount() {
+		return this.pathCount;
+	}
+
+	// Draws and forgets the queued paths
+	public void render() {
+		if (this.pathCount == 0)
+			return;
+
+		bin();
+		int bands = this.bandStart.length - 1;
+		BandTask task = new BandTask(0, bands);
+		if (ForkJoinTask.getPool() == this.pool)
+			task.invoke();
+		else
+			this.pool.invoke(task);
+
+		this.pointCount = 0;
+		this.pathCount = 0;
+		this.piecePath = null;
+		this.pieceStart = null;
+		this.bandStart = null;
+		this.bandPieces = null;
+	}
+
+	// Paths are cut into pieces of a few segments, each piece is listed in the bands it crosses in the order of the paths
+	private void bin() {
+		int pieces = 0;
+		for (int i = 0; i < this.pathCount; i++)
+			pieces += (this.pathStart[i + 1] - this.pathStart[i] - 2) / PIECE_SIZE + 1;
+
+		int[] piecePath = new int[pieces], pieceStart = new int[pieces], pieceMinBand = new int[pieces], pieceMaxBand = new int[pieces];
+		int bands = (this.height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+		int[] bandStart = new int[bands + 1];
+
+		int n = 0;
+		for (int i = 0; i < this.pathCount; i++) {
+			double reach = getReach(this.widths[i]);
+			int end = this.pathStart[i + 1] - 1;
+			for (int start = this.pathStart[i]; start < end; start += PIECE_SIZE, n++) {
+				float minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+				for (int p = start, last = Math.min(start + PIECE_SIZE, end); p <= last; p++) {
+					float y = this.points[2 * p + 1];
+					minY = Math.min(minY, y);
+					maxY = Math.max(maxY, y);
+				}
+
+				piecePath[n] = i;
+				pieceStart[n] = start;
+				int minRow = (int) Math.max(Math.floor(minY - reach), 0), maxRow = (int) Math.min(Math.floor(maxY + reach), this.height - 1);
+				if (minRow > maxRow) {
+					// Out of the image
+					pieceMinBand[n] = 0;
+					pieceMaxBand[n] = -1;
+				} else {
+					pieceMinBand[n] = minRow / BAND_HEIGHT;
+					pieceMaxBand[n] = maxRow / BAND_HEIGHT;
+					for (int b = pieceMinBand[n]; b <= pieceMaxBand[n]; b++)
+						bandStart[b + 1]++;
+				}
+			}
+		}
+
+		for (int b = 0; b < bands; b++)
+			bandStart[b + 1] += bandStart[b];
+
+		int[] bandPieces = new int[bandStart[bands]], fill = Arrays.copyOf(bandStart, bands);
+		for (int p = 0; p < pieces; p++) {
+			for (int b = pieceMinBand[p]; b <= pieceMaxBand[p]; b++)
+				bandPieces[fill[b]++] = p;
+		}
+
+		this.piecePath = piecePath;
+		this.pieceStart = pieceStart;
+		this.bandStart = bandStart;
+		this.bandPieces = bandPieces;
+	}
+
+	// Distance from the segment beyond which a pixel center is not covered
+	private static double getReach(double lineWidth) {
+		return (Math.max(lineWidth, 1) / 2 + 0.5) * SQRT_2;
+	}
+
+	public void write(ArgbWriter writer) {
+		writer.setPixels(0, 0, this.width, this.height, this.argb, 0, this.width);
+	}
+
+	public void exportPng(Path file) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+			 PngWriter png = new PngWriter(out, this.width, this.height, 8, PngWriter.RGB)) {
+			byte[] row = new byte[png.rowBytes];
+			for (int y = 0, p = 0; y < this.height; y++) {
+				for (int x = 0, i = 0; x < this.width; x++, p++) {
+					row[i++] = (byte) (this.argb[p] >> 16);
+					row[i++] = (byte) (this.argb[p] >> 8);
+					row[i++] = (byte) this.argb[p];
+				}
+				png.writeRow(row);
+			}
+		}
+	}
+
+	private class BandTask extends RecursiveAction {
+		final int minBand, maxBand;
+
+		// Coverage of the current path in the band, and the bounds of the pixels it touched
+		private float[] coverage;
+		private int minX, maxX, minRow, maxRow;
+
+		BandTask(int minBand, int maxBand) {
+			this.minBand = minBand;
+			this.maxBand = maxBand;
+		}
+
+		@Override
+		protected void compute() {
+			int bands = this.maxBand - this.minBand;
+			if (bands >= 2 && getSurplusQueuedTaskCount() <= EscapeTimeFractal.SURPLUS_THRESHOLD) {
+				int midBand = this.minBand + bands / 2;
+				invokeAll(new BandTask(this.minBand, midBand), new BandTask(midBand, this.maxBand));
+				return;
+			}
+
+			this.coverage = new float[BAND_HEIGHT * SegmentRasterizer.this.width];
+			for (int b = this.minBand; b < this.maxBand; b++)
+				computeBand(b);
+		}
+
+		private void computeBand(int band) {
+			SegmentRasterizer r = SegmentRasterizer.this;
+			int top = band * BAND_HEIGHT, bottom = Math.min(top + BAND_HEIGHT, r.height);
+			int path = -1;
+			resetBounds();
+
+			for (int i = r.bandStart[band], end = r.bandStart[band + 1]; i < end; i++) {
+				int piece = r.bandPieces[i];
+				if (r.piecePath[piece] != path) {
+					if (path != -1)
+						blend(top, r.colors[path]);
+					path = r.piecePath[piece];
+				}
+
+				float width = r.widths[path];
+				boolean thin = width < 1;
+				double halfWidth = Math.max(width, 1) / 2, fade = Math.min(width, 1), cap = width / 2, joint = thin ? 0 : cap;
+				int first = r.pathStart[path], lastPoint = r.pathStart[path + 1] - 1;
+				int start = r.pieceStart[piece], last = Math.min(start + PIECE_SIZE, lastPoint);
+				for (int p = start; p < last; p++)
+					cover(r.points[2 * p], r.points[2 * p + 1], r.points[2 * p + 2], r.points[2 * p + 3], halfWidth,
+							p == first ? cap : joint, p == lastPoint - 1 ? cap : joint, fade, thin, top, bottom);
+			}
+
+			if (path != -1)
+				blend(top, r.colors[path]);
+		}
+
+		// Box filtered coverage of the rectangle around the segment extended by the caps at both ends,
+		// added to or merged with the coverage of the previous segments of the path
+		private void cover(double x0, double y0, double x1, double y1, double halfWidth, double cap0, double cap1, double fade, boolean add, int top, int bottom) {
+			int width = SegmentRasterizer.this.width;
+			double dx = x1 - x0, dy = y1 - y0, length = Math.sqrt(dx * dx + dy * dy);
+			double ux = length == 0 ? 1 : dx / length, uy = length == 0 ? 0 : dy / length;
+			double extent = halfWidth + 0.5, reach = extent * SQRT_2;
+			double start = -cap0, end = length + cap1;
+
+			int minRow = (int) Math.max(Math.floor(Math.min(y0, y1) - reach), top), maxRow = (int) Math.min(Math.floor(Math.max(y0, y1) + reach), bottom - 1);
+			for (int row = minRow; row <= maxRow; row++) {
+				double cy = row + 0.5;
+
+				// Part of the segment close enough to the row
+				double ta = 0, tb = 1;
+				if (dy == 0) {
+					if (Math.abs(y0 - cy) > reach)
+						continue;
+				} else {
+					ta = (cy - reach - y0) / dy;
+					tb = (cy + reach - y0) / dy;
+					if (ta > tb) {
+						double t = ta;
+						ta = tb;
+						tb = t;
+					}
+					ta = Math.max(ta, 0);
+					tb = Math.min(tb, 1);
+					if (ta > tb)
+						continue;
+				}
+
+				double xa = x0 + dx * ta, xb = x0 + dx * tb;
+				int minX = (int) Math.max(Math.floor(Math.min(xa, xb) - reach), 0), maxX = (int) Math.min(Math.floor(Math.max(xa, xb) + reach), width - 1);
+				if (minX > maxX)
+					continue;
+
+				double ry = cy - y0;
+				int offset = (row - top) * width;
+				for (int x = minX; x <= maxX; x++) {
+					double rx = x + 0.5 - x0;
+					double across = extent - Math.abs(ry * ux - rx * uy);
+					if (across <= 0)
+						continue;
+					// Overlap of the pixel with the segment along its direction, segments shorter than a pixel only cover a part
+					double u = rx * ux + ry * uy, along = Math.min(u + 0.5, end) - Math.max(u - 0.5, start);
+					if (along <= 0)
+						continue;
+
+					float c = (float) (Math.min(across, 1) * along * fade);
+					if (add)
+						this.coverage[offset + x] = Math.min(this.coverage[offset + x] + c, 1);
+					else if (c > this.coverage[offset + x])
+						this.coverage[offset + x] = c;
+				}
+
+				this.minX = Math.min(this.minX, minX);
+				this.maxX = Math.max(this.maxX, maxX);
+				this.minRow = Math.min(this.minRow, row);
+				this.maxRow = Math.max(this.maxRow, row);
+			}
+		}
+
+		// The image being opaque, blending is a linear interpolation towards the color
+		private void blend(int top, int color) {
+			int[] argb = SegmentRasterizer.this.argb;
+			int width = SegmentRasterizer.this.width;
+			float alpha = (color >>> 24) / 255f;
+			int red = color >> 16 & 0xFF, green = color >> 8 & 0xFF, blue = color & 0xFF;
+
+			for (int row = this.minRow; row <= this.maxRow; row++) {
+				int offset = (row - top) * width, p = row * width;
+				for (int x = this.minX; x <= this.maxX; x++) {
+					float c = this.coverage[offset + x];
+					if (c == 0)
+						continue;
+					this.coverage[offset + x] = 0;
+
+					float a = c * alpha;
+					int d = argb[p + x];
+					int r = d >> 16 & 0xFF, g = d >> 8 & 0xFF, b = d & 0xFF;
+					argb[p + x] = EscapeTimeFractal.BLACK | (int) (r + (red - r) * a + 0.5f) << 16 | (int) (g + (green - g) * a + 0.5f) << 8 | (int) (b + (blue - b) * a + 0.5f);
+				}
+			}
+			resetBounds();
+		}
+
+		private void resetBounds() {
+			this.minX = Integer.MAX_VALUE;
+			this.maxX = Integer.MIN_VALUE;
+			this.minRow = Integer.MAX_VALUE;
+			this.maxRow = Integer.MIN_VALUE;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least recently used cache of iteration counts for tiles of a fixed world-space grid.
+ * The grid of a scale is made of the points (x * scale, y * scale) for all integers x and y.
+ */
+public class TileCache {
+	public static final int TILE_SIZE = 64;
+	private static final long ENTRY_OVERHEAD = 64;
+
+	public final long maxBytes;
+	private final LinkedHashMap<Key, int[]> tiles = new LinkedHashMap<>(256, 0.75f, true);
+	private long bytes;
+
+	public TileCache(long maxBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("maxBytes");
+		this.maxBytes = maxBytes;
+	}
+
+	// Rounds the mantissa to 32 bits so that zooming in then out gives back exactly the same scale
+	public static double snapScale(double scale) {
+		long bits = Double.doubleToRawLongBits(scale);
+		return Double.longBitsToDouble(bits + (1L << 19) & -(1L << 20));
+	}
+
+	public synchronized int[] get(Key key) {
+		return this.tiles.get(key);
+	}
+
+	public synchronized void put(Key key, int[] data) {
+		int[] previous = this.tiles.put(key, data);
+		if (previous != null)
+			this.bytes -= size(previous);
+		this.bytes += size(data);
+
+		Iterator<int[]> it = this.tiles.values().iterator();
+		while (this.bytes > this.maxBytes && it.hasNext()) {
+			this.bytes -= size(it.next());
+			it.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		this.tiles.clear();
+		this.bytes = 0;
+	}
+
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	private static long size(int[] data) {
+		return data.length * 4L + ENTRY_OVERHEAD;
+	}
+
+	public record Key(String fractal, double scale, long x, long y, int maxIterations) {}
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import net.smoofyuniverse.common.task.IncrementalListener;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches regions of an escape-time fractal to {@link TileWorker} processes.
+ * Each region is leased to one worker at a time, a region whose worker dies or times out is leased again to another one.
+ * Regions are rendered locally when no worker is connected or when they failed too many times.
+ * Regions larger than a worker accepts are rendered in parts, the consumer still receives them whole.
+ */
+public class TileCoordinator {
+	private static final Logger logger = ApplicationLogger.get(TileCoordinator.class);
+
+	public final List<InetSocketAddress> workers;
+
+	public int connectTimeout = 2000, leaseTimeout = 60000;
+	// Number of regions sent in advance to each worker to hide the latency of the network
+	public int pipeline = 2;
+	public int maxAttempts = 3;
+	// Workers refuse larger regions
+	public int maxRegionArea = TileWorker.MAX_REGION_AREA;
+
+	public TileCoordinator(List<InetSocketAddress> workers) {
+		if (workers == null)
+			throw new IllegalArgumentException("workers");
+		this.workers = List.copyOf(workers);
+	}
+
+	// Parses a list of host:port separated by commas or spaces, the port is optional
+	public static TileCoordinator parse(String addresses) {
+		List<InetSocketAddress> workers = new ArrayList<>();
+		for (String address : addresses.split("[,\\s]+")) {
+			if (address.isEmpty())
+				continue;
+
+			int i = address.lastIndexOf(':');
+			try {
+				workers.add(i == -1 ? InetSocketAddress.createUnresolved(address, TileWorker.DEFAULT_PORT)
+						: InetSocketAddress.createUnresolved(address.substring(0, i), Integer.parseInt(address.substring(i + 1))));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("addresses", e);
+			}
+		}
+		return new TileCoordinator(workers);
+	}
+
+	/**
+	 * Renders the regions of the set and passes each result to the consumer, in no particular order.
+	 * The consumer is never called concurrently.
+	 * Progress is incremented once per pixel.
+	 *
+	 * @return false if cancelled
+	 */
+	public boolean render(EscapeTimeFractal set, List<Region> regions, RegionConsumer consumer, IncrementalListener listener) throws IOException {
+		if (set == null)
+			throw new IllegalArgumentException("set");
+		if (this.maxRegionArea <= 0)
+			throw new IllegalStateException("maxRegionArea");
+
+		Job job = new Job(set, regions, consumer, listener);
+		List<Connection> connections = new ArrayList<>();
+		for (InetSocketAddress address : this.workers) {
+			Connection c = new Connection(job, address);
+			connections.add(c);
+			job.alive.incrementAndGet();
+			c.start();
+		}
+
+		try {
+			job.runLocal();
+		} finally {
+			job.done = true;
+			for (Connection c : connections)
+				c.close();
+			for (Connection c : connections) {
+				try {
+					c.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		if (job.error != null)
+			throw job.error;
+		return !listener.isCancelled();
+	}
+
+	public record Region(int x, int y, int width, int height) {
+		public Region {
+			if (x < 0 || y < 0)
+				throw new IllegalArgumentException("position");
+			if (width <= 0 || height <= 0 || (long) width * height * 4 > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("size");
+		}
+	}
+
+	public interface RegionConsumer {
+		void accept(Region region, int[] iterations) throws IOException;
+	}
+
+	private static class Lease {
+		final long id;
+		final Region region;
+		// The whole region when this one is a part of it
+		final Assembly assembly;
+		int attempts;
+
+		Lease(long id, Region region, Assembly assembly) {
+			this.id = id;
+			this.region = region;
+			this.assembly = assembly;
+		}
+	}
+
+	private static class Assembly {
+		final Region region;
+		int parts;
+		int[] iterations;
+
+		Assembly(Region region) {
+			this.region = region;
+		}
+
+		// The iterations of the whole region once all its parts are copied, null before
+		int[] add(Region part, int[] iterations) {
+			Region r = this.region;
+			if (this.iterations == null)
+				this.iterations = new int[r.width * r.height];
+			for (int y = 0; y < part.height; y++)
+				System.arraycopy(iterations, y * part.width, this.iterations, (part.y - r.y + y) * r.width + part.x - r.x, part.width);
+
+			if (--this.parts != 0)
+				return null;
+			int[] whole = this.iterations;
+			this.iterations = null;
+			return whole;
+		}
+	}
+
+	private class Job {
+		final EscapeTimeFractal set;
+		final RegionConsumer consumer;
+		final IncrementalListener listener;
+
+		// Regions waiting for a worker, and regions that will only be rendered locally
+		final BlockingQueue<Lease> pending = new LinkedBlockingQueue<>(), local = new LinkedBlockingQueue<>();
+		final AtomicInteger remaining, alive = new AtomicInteger();
+		volatile boolean done;
+		IOException error;
+
+		Job(EscapeTimeFractal set, List<Region> regions, RegionConsumer consumer, IncrementalListener listener) {
+			this.set = set;
+			this.consumer = consumer;
+			this.listener = listener;
+
+			int maxArea = TileCoordinator.this.maxRegionArea;
+			long id = 0;
+			for (Region r : regions) {
+				if ((long) r.width * r.height <= maxArea) {
+					this.pending.add(new Lease(id++, r, null));
+					continue;
+				}
+
+				int partWidth = Math.min(r.width, maxArea), partHeight = maxArea / partWidth;
+				Assembly assembly = new Assembly(r);
+				for (int y = 0; y < r.height; y += partHeight) {
+					for (int x = 0; x < r.width; x += partWidth) {
+						this.pending.add(new Lease(id++, new Region(r.x + x, r.y + y, Math.min(partWidth, r.width - x), Math.min(partHeight, r.height - y)), assembly));
+						assembly.parts++;
+					}
+				}
+			}
+			this.remaining = new AtomicInteger((int) id);
+		}
+
+		boolean isFinished() {
+			return this.done || this.remaining.get() == 0 || this.listener.isCancelled();
+		}
+
+		void runLocal() throws IOException {
+			while (!isFinished()) {
+				Lease lease;
+				try {
+					lease = this.local.poll();
+					if (lease == null)
+						lease = this.alive.get() == 0 ? this.pending.poll(100, TimeUnit.MILLISECONDS) : this.local.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				if (lease == null)
+					continue;
+
+				Region r = lease.region;
+				IterationBuffer buffer = new IterationBuffer(r.width, r.height);
+				copy(r).generate(null, buffer, 1, false, this.listener);
+				if (this.listener.isCancelled())
+					return;
+
+				complete(lease, buffer.iterations, false);
+			}
+		}
+
+		EscapeTimeFractal copy(Region r) {
+			return this.set.copy(this.set.minX + r.x * this.set.xScale, this.set.minY + r.y * this.set.yScale, this.set.xScale, this.set.yScale);
+		}
+
+		synchronized void complete(Lease lease, int[] iterations, boolean remote) throws IOException {
+			if (this.done)
+				return;
+
+			Region r = lease.region;
+			try {
+				if (lease.assembly == null) {
+					this.consumer.accept(r, iterations);
+				} else {
+					int[] whole = lease.assembly.add(r, iterations);
+					if (whole != null)
+						this.consumer.accept(lease.assembly.region, whole);
+				}
+			} catch (IOException e) {
+				this.error = e;
+				this.done = true;
+				throw e;
+			}
+			if (remote)
+				this.listener.increment((long) r.width * r.height);
+			this.remaining.decrementAndGet();
+		}
+
+		void release(Lease lease) {
+			if (++lease.attempts >= TileCoordinator.this.maxAttempts)
+				this.local.add(lease);
+			else
+				this.pending.add(lease);
+		}
+	}
+
+	private class Connection extends Thread {
+		final Job job;
+		final InetSocketAddress address;
+		final ArrayDeque<Lease> leased = new ArrayDeque<>();
+		final Socket socket = new Socket();
+
+		Connection(Job job, InetSocketAddress address) {
+			super("Tile coordinator " + address);
+			setDaemon(true);
+			this.job = job;
+			this.address = address;
+		}
+
+		@Override
+		public void run() {
+			try {
+				InetSocketAddress address = this.address.isUnresolved() ? new InetSocketAddress(this.address.getHostString(), this.address.getPort()) : this.address;
+				this.socket.connect(address, TileCoordinator.this.connectTimeout);
+				this.socket.setTcpNoDelay(true);
+				this.socket.setSoTimeout(TileCoordinator.this.leaseTimeout);
+
+				DataInputStream in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream(), 1 << 16));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream(), 1 << 16));
+
+				out.writeInt(TileWorker.MAGIC);
+				out.writeInt(TileWorker.VERSION);
+				out.flush();
+				if (in.readInt() != TileWorker.MAGIC)
+					throw new IOException("Not a tile worker");
+				in.readInt(); // parallelism
+
+				byte[] bytes = new byte[0];
+				while (!this.job.isFinished()) {
+					// Keeps the worker busy while the previous results are transferred
+					while (this.leased.size() < TileCoordinator.this.pipeline) {
+						Lease lease = this.leased.isEmpty() ? this.job.pending.poll(100, TimeUnit.MILLISECONDS) : this.job.pending.poll();
+						if (lease == null)
+							break;
+
+						this.leased.add(lease);
+						Region r = lease.region;
+						out.writeLong(lease.id);
+						TileWorker.writeFractal(out, this.job.copy(r));
+						out.writeInt(r.width);
+						out.writeInt(r.height);
+					}
+					out.flush();
+
+					if (this.leased.isEmpty())
+						continue;
+
+					Lease lease = this.leased.peek();
+					if (in.readLong() != lease.id)
+						throw new IOException("Unexpected lease");
+
+					Region r = lease.region;
+					int size = r.width * r.height * 4;
+					if (bytes.length < size)
+						bytes = new byte[size];
+					in.readFully(bytes, 0, size);
+
+					int[] iterations = new int[r.width * r.height];
+					ByteBuffer.wrap(bytes, 0, size).asIntBuffer().get(iterations);
+					for (int it : iterations) {
+						if (it <= 0 || it > this.job.set.maxIterations)
+							throw new IOException("Invalid iterations");
+					}
+
+					this.leased.poll();
+					this.job.complete(lease, iterations, true);
+				}
+			} catch (InterruptedException ignored) {
+			} catch (IOException e) {
+				if (!this.job.isFinished())
+					logger.warn("Tile worker " + this.address + " failed, its regions will be leased again", e);
+			} finally {
+				// Decremented before the leases are released so that they are not left without a worker
+				this.job.alive.decrementAndGet();
+				Lease lease;
+				while ((lease = this.leased.poll()) != null)
+					this.job.release(lease);
+				close();
+			}
+		}
+
+		void close() {
+			try {
+				this.socket.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+}
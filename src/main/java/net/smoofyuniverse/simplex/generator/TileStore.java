@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import net.smoofyuniverse.simplex.generator.TileCache.Key;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Persistent store of compressed tiles, one file per tile, shared by all the sessions of the application.
+ * Files are written to a temporary file then atomically renamed, and their content is checked when read,
+ * so a crash never leaves a partial tile. Writes and eviction of the least recently used tiles happen in the background.
+ */
+public class TileStore {
+	private static final Logger logger = ApplicationLogger.get(TileStore.class);
+
+	public static final int MAGIC = 0x534D5453, VERSION = 1;
+	public static final String EXTENSION = ".tile";
+	private static final int HEADER_SIZE = 50;
+
+	public final Path directory;
+	public final long maxBytes;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Tile store");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+	// Unknown until the initial scan is done
+	private final AtomicLong bytes = new AtomicLong(-1);
+
+	public TileStore(Path directory, long maxBytes) throws IOException {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("maxBytes");
+
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		Files.createDirectories(directory);
+		this.executor.execute(this::scan);
+	}
+
+	public Path getFile(Key key) {
+		return this.directory.resolve(key.fractal().replaceAll("[^A-Za-z0-9]", "_"))
+				.resolve(Long.toHexString(Double.doubleToRawLongBits(key.scale())))
+				.resolve(key.x() + "_" + key.y() + "_" + key.maxIterations() + EXTENSION);
+	}
+
+	// Returns null if the tile is not stored or if its file is invalid
+	public int[] get(Key key) {
+		Path file = getFile(key);
+		int[] data;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			data = read(buffer, key);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			logger.warn("Failed to read tile " + file, e);
+			return null;
+		}
+
+		if (data == null) {
+			this.executor.execute(() -> delete(file));
+			return null;
+		}
+
+		// The modification time is used as the last access time for the eviction
+		this.executor.execute(() -> {
+			try {
+				Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			} catch (IOException ignored) {
+			}
+		});
+		return data;
+	}
+
+	// The data must not be modified afterwards
+	public void put(Key key, int[] data) {
+		this.executor.execute(() -> {
+			Path file = getFile(key);
+			try {
+				long size = write(file, key, data);
+				if (this.bytes.get() != -1 && this.bytes.addAndGet(size) > this.maxBytes)
+					evict();
+			} catch (IOException e) {
+				logger.warn("Failed to write tile " + file, e);
+			}
+		});
+	}
+
+	private static int[] read(ByteBuffer buffer, Key key) {
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			return null;
+
+		int maxIterations = buffer.getInt(), length = buffer.getInt(), crc = buffer.getInt(), compressedLength = buffer.getInt();
+		long x = buffer.getLong(), y = buffer.getLong();
+		double scale = buffer.getDouble();
+		int nameLength = buffer.getShort() & 0xFFFF;
+		if (maxIterations != key.maxIterations() || x != key.x() || y != key.y() || scale != key.scale()
+				|| length < 0 || length > 1 << 24 || nameLength > buffer.remaining())
+			return null;
+
+		byte[] name = new byte[nameLength];
+		buffer.get(name);
+		if (!key.fractal().equals(new String(name, StandardCharsets.UTF_8)) || compressedLength != buffer.remaining())
+			return null;
+
+		CRC32 checksum = new CRC32();
+		checksum.update(buffer.duplicate());
+		if ((int) checksum.getValue() != crc)
+			return null;
+
+		byte[] bytes = new byte[length * 4];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(buffer);
+			if (inflater.inflate(bytes) != bytes.length || !inflater.finished())
+				return null;
+		} catch (DataFormatException e) {
+			return null;
+		} finally {
+			inflater.end();
+		}
+
+		int[] data = new int[length];
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(data);
+
+		// Counts are stored as differences with the previous one which compress much better
+		for (int i = 1; i < length; i++)
+			data[i] += data[i - 1];
+		for (int c : data) {
+			if (c <= 0 || c > maxIterations)
+				return null;
+		}
+		return data;
+	}
+
+	private static long write(Path file, Key key, int[] data) throws IOException {
+		ByteBuffer raw = ByteBuffer.allocate(data.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+		IntBuffer ints = raw.asIntBuffer();
+		ints.put(data[0]);
+		for (int i = 1; i < data.length; i++)
+			ints.put(data[i] - data[i - 1]);
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] compressed = new byte[data.length * 4 + 64];
+		int compressedLength;
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			compressedLength = deflater.deflate(compressed);
+			if (!deflater.finished())
+				throw new IOException("Incompressible tile");
+		} finally {
+			deflater.end();
+		}
+
+		CRC32 checksum = new CRC32();
+		checksum.update(compressed, 0, compressedLength);
+
+		byte[] name = key.fractal().getBytes(StandardCharsets.UTF_8);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + name.length).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(key.maxIterations()).putInt(data.length).putInt((int) checksum.getValue()).putInt(compressedLength)
+				.putLong(key.x()).putLong(key.y()).putDouble(key.scale()).putShort((short) name.length).put(name);
+		header.flip();
+
+		Path parent = file.getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				channel.write(new ByteBuffer[]{header, ByteBuffer.wrap(compressed, 0, compressedLength)});
+				channel.force(true);
+			}
+
+			// Readers see either the previous file or the complete new one
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		return header.limit() + compressedLength;
+	}
+
+	// Computes the size of the store and removes the temporary files left by a crash
+	private void scan() {
+		long total = 0;
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(".tmp"))
+					delete(file);
+				else if (name.endsWith(EXTENSION))
+					total += Files.size(file);
+			}
+		} catch (IOException | UncheckedIOException e) {
+			logger.warn("Failed to scan the tile store", e);
+		}
+
+		this.bytes.set(total);
+		if (total > this.maxBytes)
+			evict();
+	}
+
+	// Least recently used tiles are deleted until the store is well below its maximum size
+	private void evict() {
+		record Entry(Path file, long size, long time) {}
+
+		List<Entry> entries = new ArrayList<>();
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (file.getFileName().toString().endsWith(EXTENSION)) {
+					BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+					entries.add(new Entry(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+				}
+			}
+		} catch (IOException | UncheckedIOException e) {
+			logger.warn("Failed to list the tile store", e);
+			return;
+		}
+
+		long total = 0;
+		for (Entry e : entries)
+			total += e.size;
+
+		entries.sort(Comparator.comparingLong(Entry::time));
+		long target = this.maxBytes / 10 * 9;
+		for (int i = 0; i < entries.size() && total > target; i++) {
+			Entry e = entries.get(i);
+			if (delete(e.file))
+				total -= e.size;
+		}
+		this.bytes.set(total);
+	}
+
+	private boolean delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			return false;
+		}
+
+		// Removes the directories of scales that became empty
+		Path parent = file.getParent();
+		while (parent != null && !parent.equals(this.directory)) {
+			try {
+				Files.delete(parent);
+			} catch (IOException e) {
+				break;
+			}
+			parent = parent.getParent();
+		}
+		return true;
+	}
+
+	public long getBytes() {
+		return this.bytes.get();
+	}
+
+	// Waits for the pending writes
+	public void close() {
+		this.executor.shutdown();
+		try {
+			this.executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import net.smoofyuniverse.common.task.IncrementalListener;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Renders regions of escape-time fractals for a {@link TileCoordinator} connected through a socket.
+ * A worker can serve several coordinators, each connection is handled by its own thread and all share the same pool.
+ * There is no authentication: the worker only listens on the loopback interface unless another address is given.
+ * Requests beyond the limits below are refused before anything is allocated.
+ * <p>
+ * Usage: TileWorker [port] [threads] [address]
+ */
+public class TileWorker {
+	private static final Logger logger = ApplicationLogger.get(TileWorker.class);
+
+	public static final int MAGIC = 0x534D5457, VERSION = 1;
+	public static final int DEFAULT_PORT = 24871;
+	public static final int MAX_ITERATIONS = 1 << 20, MAX_POWER = 64, MAX_REGION_AREA = 1 << 24;
+
+	// Fractal types
+	public static final byte MANDELBROT = 0, JULIA = 1, BURNING_SHIP = 2, MULTIBROT = 3;
+
+	public final ForkJoinPool pool;
+
+	public TileWorker(ForkJoinPool pool) {
+		if (pool == null)
+			throw new IllegalArgumentException("pool");
+		this.pool = pool;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		InetAddress address = args.length > 2 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+
+		try (ServerSocket server = new ServerSocket(port, 50, address)) {
+			logger.info("Tile worker listening on {}:{} with {} threads", address.getHostAddress(), server.getLocalPort(), threads);
+			new TileWorker(new ForkJoinPool(threads)).serve(server);
+		}
+	}
+
+	public void serve(ServerSocket server) throws IOException {
+		while (!server.isClosed()) {
+			Socket socket = server.accept();
+			Thread thread = new Thread(() -> handle(socket), "Tile worker " + socket.getRemoteSocketAddress());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void handle(Socket socket) {
+		try (socket) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return;
+			out.writeInt(MAGIC);
+			out.writeInt(this.pool.getParallelism());
+			out.flush();
+
+			// Requests are read ahead by another thread, which also notices when the coordinator disconnects
+			ConnectionListener listener = new ConnectionListener(in, this.pool);
+			Thread reader = new Thread(listener, Thread.currentThread().getName() + " reader");
+			reader.setDaemon(true);
+			reader.start();
+
+			byte[] bytes = new byte[0];
+
+			// Requests are handled in order, the coordinator sends the next ones while a region is rendered
+			while (true) {
+				Request request = listener.requests.take();
+				if (request == ConnectionListener.END)
+					return;
+
+				int width = request.width, height = request.height;
+				IterationBuffer buffer = new IterationBuffer(width, height);
+				request.set.generate(null, buffer, 1, false, listener);
+				if (listener.isCancelled())
+					return;
+
+				int size = width * height * 4;
+				if (bytes.length < size)
+					bytes = new byte[size];
+				ByteBuffer.wrap(bytes).asIntBuffer().put(buffer.iterations);
+
+				out.writeLong(request.lease);
+				out.write(bytes, 0, size);
+				out.flush();
+			}
+		} catch (IOException | InterruptedException ignored) {
+			// The coordinator will lease the region again
+		}
+	}
+
+	public static void writeFractal(DataOutput out, EscapeTimeFractal set) throws IOException {
+		if (set instanceof MandelbrotSet && !(set instanceof DeepMandelbrotSet))
+			out.writeByte(MANDELBROT);
+		else if (set instanceof JuliaSet)
+			out.writeByte(JULIA);
+		else if (set instanceof BurningShip)
+			out.writeByte(BURNING_SHIP);
+		else if (set instanceof Multibrot)
+			out.writeByte(MULTIBROT);
+		else
+			throw new IllegalArgumentException("set");
+
+		out.writeInt(set.blocks);
+		out.writeDouble(set.minX);
+		out.writeDouble(set.minY);
+		out.writeDouble(set.xScale);
+		out.writeDouble(set.yScale);
+		out.writeInt(set.maxIterations);
+		out.writeBoolean(set.subdivision);
+
+		if (set instanceof MandelbrotSet m) {
+			out.writeBoolean(m.cardioidCheck);
+			out.writeBoolean(m.periodicityCheck);
+		} else if (set instanceof JuliaSet j) {
+			out.writeDouble(j.cX);
+			out.writeDouble(j.cY);
+		} else if (set instanceof Multibrot m) {
+			out.writeInt(m.power);
+		}
+	}
+
+	public static EscapeTimeFractal readFractal(DataInput in, ForkJoinPool pool) throws IOException {
+		byte type = in.readByte();
+		int blocks = in.readInt();
+		double minX = in.readDouble(), minY = in.readDouble(), xScale = in.readDouble(), yScale = in.readDouble();
+		int maxIterations = in.readInt();
+		if (maxIterations > MAX_ITERATIONS)
+			throw new IOException("Too many iterations: " + maxIterations);
+		boolean subdivision = in.readBoolean();
+
+		EscapeTimeFractal set;
+		try {
+			switch (type) {
+				case MANDELBROT -> {
+					MandelbrotSet m = new MandelbrotSet(pool, blocks, minX, minY, xScale, yScale, maxIterations);
+					m.cardioidCheck = in.readBoolean();
+					m.periodicityCheck = in.readBoolean();
+					set = m;
+				}
+				case JULIA -> set = new JuliaSet(pool, blocks, minX, minY, xScale, yScale, maxIterations, in.readDouble(), in.readDouble());
+				case BURNING_SHIP -> set = new BurningShip(pool, blocks, minX, minY, xScale, yScale, maxIterations);
+				case MULTIBROT -> {
+					int power = in.readInt();
+					if (power > MAX_POWER)
+						throw new IOException("Power too high: " + power);
+					set = new Multibrot(pool, blocks, minX, minY, xScale, yScale, maxIterations, power);
+				}
+				default -> throw new IOException("Unknown fractal type: " + type);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid fractal", e);
+		}
+
+		set.subdivision = subdivision;
+		return set;
+	}
+
+	private record Request(long lease, EscapeTimeFractal set, int width, int height) {}
+
+	// Reads the requests, and stops rendering when the coordinator disconnects or sends an invalid request
+	private static class ConnectionListener implements IncrementalListener, Runnable {
+		static final Request END = new Request(0, null, 0, 0);
+
+		final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+		private final DataInputStream in;
+		private final ForkJoinPool pool;
+		private volatile boolean disconnected;
+
+		ConnectionListener(DataInputStream in, ForkJoinPool pool) {
+			this.in = in;
+			this.pool = pool;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					long lease = this.in.readLong();
+					EscapeTimeFractal set = readFractal(this.in, this.pool);
+					int width = this.in.readInt(), height = this.in.readInt();
+					if (width <= 0 || height <= 0 || (long) width * height > MAX_REGION_AREA)
+						throw new IOException("Invalid region size: " + width + "x" + height);
+					this.requests.add(new Request(lease, set, width, height));
+				}
+			} catch (IOException e) {
+				// End of the stream or socket closed
+			} finally {
+				this.disconnected = true;
+				this.requests.add(END);
+			}
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return this.disconnected;
+		}
+
+		@Override
+		public void increment(long value) {}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Escape-time loop iterating one vector of points at once.
+ * This class must only be loaded when the jdk.incubator.vector module is present.
+ */
+final class VectorKernel {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	static final int LANES = SPECIES.length();
+
+	private VectorKernel() {}
+
+	static void getIterations(double[] x, double y, int count, int maxIterations, boolean cardioidCheck, boolean periodicityCheck, int[] out) {
+		DoubleVector cy = DoubleVector.broadcast(SPECIES, y);
+		// Lane state is only spilled to these arrays when some lanes must be refilled
+		double[] cxA = new double[LANES], rA = new double[LANES], iA = new double[LANES], r2A = new double[LANES], i2A = new double[LANES],
+				cA = new double[LANES], savedRA = new double[LANES], savedIA = new double[LANES], saveAtA = new double[LANES];
+		int[] indices = new int[LANES];
+		boolean[] busyA = new boolean[LANES];
+
+		// Each lane takes the next point as soon as its own point is done, so lanes never wait for the slowest one
+		int next = 0, busy = 0;
+		for (int l = 0; l < LANES; l++) {
+			next = nextPoint(x, y, count, maxIterations, cardioidCheck, out, next);
+			indices[l] = next < count ? next++ : -1;
+			busyA[l] = indices[l] != -1;
+			if (busyA[l])
+				busy++;
+
+			cxA[l] = indices[l] == -1 ? 0 : x[indices[l]];
+			saveAtA[l] = 1;
+		}
+
+		DoubleVector cx = DoubleVector.fromArray(SPECIES, cxA, 0);
+		DoubleVector r = DoubleVector.zero(SPECIES), i = r, r2 = r, i2 = r, c = r, savedR = r, savedI = r;
+		DoubleVector saveAt = DoubleVector.broadcast(SPECIES, 1);
+		VectorMask<Double> busyMask = VectorMask.fromArray(SPECIES, busyA, 0);
+
+		while (busy != 0) {
+			// Same operations in the same order as the scalar loop, so counts are identical
+			i = i.mul(2).mul(r).add(cy);
+			r = r2.sub(i2).add(cx);
+
+			r2 = r.mul(r);
+			i2 = i.mul(i);
+
+			c = c.add(1);
+
+			VectorMask<Double> cycle = null;
+			VectorMask<Double> done = r2.add(i2).compare(VectorOperators.GE, 4).or(c.compare(VectorOperators.GE, maxIterations));
+			if (periodicityCheck) {
+				cycle = r.eq(savedR).and(i.eq(savedI));
+				done = done.or(cycle);
+
+				VectorMask<Double> save = c.eq(saveAt);
+				savedR = savedR.blend(r, save);
+				savedI = savedI.blend(i, save);
+				saveAt = saveAt.blend(saveAt.mul(2), save);
+			}
+
+			done = done.and(busyMask);
+			if (!done.anyTrue())
+				continue;
+
+			cx.intoArray(cxA, 0);
+			r.intoArray(rA, 0);
+			i.intoArray(iA, 0);
+			r2.intoArray(r2A, 0);
+			i2.intoArray(i2A, 0);
+			c.intoArray(cA, 0);
+			savedR.intoArray(savedRA, 0);
+			savedI.intoArray(savedIA, 0);
+			saveAt.intoArray(saveAtA, 0);
+
+			for (int l = 0; l < LANES; l++) {
+				if (!done.laneIsSet(l))
+					continue;
+
+				out[indices[l]] = cycle != null && cycle.laneIsSet(l) ? maxIterations : (int) cA[l];
+
+				next = nextPoint(x, y, count, maxIterations, cardioidCheck, out, next);
+				if (next < count) {
+					indices[l] = next;
+					cxA[l] = x[next++];
+				} else {
+					busyA[l] = false;
+					cxA[l] = 0;
+					busy--;
+				}
+
+				rA[l] = 0;
+				iA[l] = 0;
+				r2A[l] = 0;
+				i2A[l] = 0;
+				cA[l] = 0;
+				savedRA[l] = 0;
+				savedIA[l] = 0;
+				saveAtA[l] = 1;
+			}
+
+			cx = DoubleVector.fromArray(SPECIES, cxA, 0);
+			r = DoubleVector.fromArray(SPECIES, rA, 0);
+			i = DoubleVector.fromArray(SPECIES, iA, 0);
+			r2 = DoubleVector.fromArray(SPECIES, r2A, 0);
+			i2 = DoubleVector.fromArray(SPECIES, i2A, 0);
+			c = DoubleVector.fromArray(SPECIES, cA, 0);
+			savedR = DoubleVector.fromArray(SPECIES, savedRA, 0);
+			savedI = DoubleVector.fromArray(SPECIES, savedIA, 0);
+			saveAt = DoubleVector.fromArray(SPECIES, saveAtA, 0);
+			busyMask = VectorMask.fromArray(SPECIES, busyA, 0);
+		}
+	}
+
+	// Points in the main cardioid or the period-2 bulb are resolved directly and never take a lane
+	private static int nextPoint(double[] x, double y, int count, int maxIterations, boolean cardioidCheck, int[] out, int next) {
+		if (cardioidCheck) {
+			while (next < count && MandelbrotSet.isInMainCardioidOrBulb(x[next], y)) {
+				out[next] = maxIterations;
+				next++;
+			}
+		}
+		return next;
+	}
+}
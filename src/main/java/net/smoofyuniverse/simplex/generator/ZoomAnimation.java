@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.generator;
+
+import net.smoofyuniverse.common.task.IncrementalListener;
+import net.smoofyuniverse.simplex.util.PngWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders a zoom along a path of keyframes to a sequence of PNG images.
+ * Consecutive frames whose scales are within a factor 2 are resampled from a single key image
+ * rendered at the resolution of the smallest scale, so a key image is about twice the size of a frame.
+ * Frames are composed and encoded concurrently with a bounded lookahead, then written in order by a separate thread.
+ */
+public class ZoomAnimation {
+	public static final int MAX_KEY_RATIO = 8;
+
+	public final ForkJoinPool pool;
+	public final List<Keyframe> path;
+	public final int width, height, frameRate, frames;
+	public final EscapeTimeFractal template;
+	public int lookahead;
+
+	private volatile double framesPerSecond;
+
+	// The formula, options and colors of the template are used for all frames
+	public ZoomAnimation(ForkJoinPool pool, EscapeTimeFractal template, List<Keyframe> path, int width, int height, int frameRate) {
+		if (pool == null)
+			throw new IllegalArgumentException("pool");
+		if (template == null || template instanceof DeepMandelbrotSet)
+			throw new IllegalArgumentException("template");
+		if (path == null || path.isEmpty())
+			throw new IllegalArgumentException("path");
+		for (int i = 1; i < path.size(); i++) {
+			if (path.get(i).time <= path.get(i - 1).time)
+				throw new IllegalArgumentException("path");
+		}
+		if (width <= 0)
+			throw new IllegalArgumentException("width");
+		if (height <= 0)
+			throw new IllegalArgumentException("height");
+		if (frameRate <= 0)
+			throw new IllegalArgumentException("frameRate");
+
+		this.pool = pool;
+		this.template = template;
+		this.path = List.copyOf(path);
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+		this.frames = (int) ((path.get(path.size() - 1).time - path.get(0).time) * frameRate) + 1;
+		this.lookahead = pool.getParallelism() * 2;
+	}
+
+	// The center moves linearly and the scale exponentially between two keyframes
+	public Keyframe getFrame(int index) {
+		if (this.path.size() == 1)
+			return this.path.get(0);
+
+		double time = this.path.get(0).time + index / (double) this.frameRate;
+		int i = 1;
+		while (i < this.path.size() - 1 && this.path.get(i).time < time)
+			i++;
+
+		Keyframe a = this.path.get(i - 1), b = this.path.get(i);
+		double u = Math.min(1, Math.max(0, (time - a.time) / (b.time - a.time)));
+		return new Keyframe(time, a.centerX + (b.centerX - a.centerX) * u, a.centerY + (b.centerY - a.centerY) * u, a.scale * Math.pow(b.scale / a.scale, u));
+	}
+
+	public double getFramesPerSecond() {
+		return this.framesPerSecond;
+	}
+
+	// Progress is incremented once per frame written
+	public boolean render(Path directory, IncrementalListener listener) throws IOException, InterruptedException {
+		Files.createDirectories(directory);
+
+		ExecutorService writer = Executors.newSingleThreadExecutor();
+		Semaphore slots = new Semaphore(this.lookahead);
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		long start = System.nanoTime();
+		int[] written = new int[1];
+
+		double firstScale = getFrame(0).scale;
+		try {
+			int i = 0;
+			while (i < this.frames && error.get() == null && !listener.isCancelled()) {
+				// Frames sharing the same power of two of the scale form a segment
+				int level = level(firstScale, getFrame(i).scale), j = i + 1;
+				while (j < this.frames && level(firstScale, getFrame(j).scale) == level)
+					j++;
+
+				Image key = j - i > 1 ? renderKey(i, j, listener) : null;
+				if (listener.isCancelled())
+					break;
+
+				for (int f = i; f < j; f++) {
+					slots.acquire();
+					if (error.get() != null || listener.isCancelled())
+						break;
+
+					int index = f;
+					CompletableFuture<byte[]> frame = CompletableFuture.supplyAsync(() -> {
+						int[] argb = key == null ? renderFrame(index, listener) : resample(key, getFrame(index));
+						return argb == null ? null : encode(argb);
+					}, this.pool);
+
+					// The writer is a single thread so frames are written in the order they were submitted
+					writer.execute(() -> {
+						try {
+							// The frame may have been cancelled after the check
+							byte[] png = error.get() == null && !listener.isCancelled() ? frame.join() : null;
+							if (png != null) {
+								Files.write(directory.resolve(String.format("frame_%05d.png", index)), png);
+								listener.increment(1);
+								written[0]++;
+								this.framesPerSecond = written[0] / ((System.nanoTime() - start) / 1e9);
+							}
+						} catch (Throwable t) {
+							error.compareAndSet(null, t);
+						} finally {
+							slots.release();
+						}
+					});
+				}
+				i = j;
+			}
+		} finally {
+			writer.shutdown();
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+
+		Throwable t = error.get();
+		if (t instanceof IOException)
+			throw (IOException) t;
+		if (t != null)
+			throw new IOException("Failed to render the animation", t);
+		return !listener.isCancelled();
+	}
+
+	private static int level(double firstScale, double scale) {
+		return (int) Math.floor(Math.log(firstScale / scale) / Math.log(2));
+	}
+
+	// The key image covers all frames of the segment at the resolution of the smallest scale, with a margin for interpolation.
+	// Null if the frames must be rendered one by one, or if cancelled.
+	private Image renderKey(int from, int to, IncrementalListener listener) {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		double scale = Double.POSITIVE_INFINITY;
+		for (int f = from; f < to; f++) {
+			Keyframe frame = getFrame(f);
+			minX = Math.min(minX, frame.centerX - this.width / 2d * frame.scale);
+			minY = Math.min(minY, frame.centerY - this.height / 2d * frame.scale);
+			maxX = Math.max(maxX, frame.centerX + this.width / 2d * frame.scale);
+			maxY = Math.max(maxY, frame.centerY + this.height / 2d * frame.scale);
+			scale = Math.min(scale, frame.scale);
+		}
+
+		long w = (long) Math.ceil((maxX - minX) / scale) + 2, h = (long) Math.ceil((maxY - minY) / scale) + 2;
+		// A path that moves too fast is cheaper to render frame by frame
+		if (w * h > (long) MAX_KEY_RATIO * this.width * this.height)
+			return null;
+
+		return render(minX - scale, minY - scale, scale, (int) w, (int) h, listener);
+	}
+
+	// Null if cancelled, the frame is then not written
+	private int[] renderFrame(int index, IncrementalListener listener) {
+		Keyframe frame = getFrame(index);
+		Image image = render(frame.centerX - this.width / 2d * frame.scale, frame.centerY - this.height / 2d * frame.scale, frame.scale, this.width, this.height, listener);
+		return image == null ? null : image.argb;
+	}
+
+	// Null if cancelled, the counts are then incomplete and cannot be colored
+	private Image render(double minX, double minY, double scale, int width, int height, IncrementalListener listener) {
+		IterationBuffer buffer = new IterationBuffer(width, height);
+		EscapeTimeFractal set = this.template.copy(minX, minY, scale, scale);
+
+		// Progress is counted per frame, not per pixel
+		set.generate(null, buffer, 1, false, new IncrementalListener() {
+			@Override
+			public boolean isCancelled() {
+				return listener.isCancelled();
+			}
+
+			@Override
+			public void increment(long value) {}
+		});
+		if (listener.isCancelled())
+			return null;
+
+		int[] argb = buffer.iterations;
+		set.palette.apply(argb, 0, argb, 0, argb.length);
+		return new Image(minX, minY, scale, width, height, argb);
+	}
+
+	// Bilinear interpolation of the key image at the center of each pixel of the frame
+	private int[] resample(Image key, Keyframe frame) {
+		int[] argb = new int[this.width * this.height];
+		double minX = frame.centerX - this.width / 2d * frame.scale, minY = frame.centerY - this.height / 2d * frame.scale;
+		double ratio = frame.scale / key.scale;
+
+		for (int y = 0, p = 0; y < this.height; y++) {
+			double ky = (minY - key.minY) / key.scale + (y + 0.5) * ratio - 0.5;
+			int y0 = Math.min(Math.max((int) Math.floor(ky), 0), key.height - 2);
+			double v = Math.min(Math.max(ky - y0, 0), 1);
+
+			for (int x = 0; x < this.width; x++, p++) {
+				double kx = (minX - key.minX) / key.scale + (x + 0.5) * ratio - 0.5;
+				int x0 = Math.min(Math.max((int) Math.floor(kx), 0), key.width - 2);
+				double u = Math.min(Math.max(kx - x0, 0), 1);
+
+				int k = y0 * key.width + x0;
+				argb[p] = mix(mix(key.argb[k], key.argb[k + 1], u), mix(key.argb[k + key.width], key.argb[k + key.width + 1], u), v);
+			}
+		}
+		return argb;
+	}
+
+	private static int mix(int a, int b, double t) {
+		int r = (int) ((a >> 16 & 0xFF) * (1 - t) + (b >> 16 & 0xFF) * t + 0.5);
+		int g = (int) ((a >> 8 & 0xFF) * (1 - t) + (b >> 8 & 0xFF) * t + 0.5);
+		int bl = (int) ((a & 0xFF) * (1 - t) + (b & 0xFF) * t + 0.5);
+		return 0xFF000000 | r << 16 | g << 8 | bl;
+	}
+
+	private byte[] encode(int[] argb) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (PngWriter png = new PngWriter(out, this.width, this.height, 8, PngWriter.RGB)) {
+			byte[] row = new byte[png.rowBytes];
+			for (int y = 0, p = 0; y < this.height; y++) {
+				for (int x = 0, i = 0; x < this.width; x++, p++) {
+					row[i++] = (byte) (argb[p] >> 16);
+					row[i++] = (byte) (argb[p] >> 8);
+					row[i++] = (byte) argb[p];
+				}
+				png.writeRow(row);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	public record Keyframe(double time, double centerX, double centerY, double scale) {
+		public Keyframe {
+			if (scale <= 0)
+				throw new IllegalArgumentException("scale");
+		}
+	}
+
+	private record Image(double minX, double minY, double scale, int width, int height, int[] argb) {}
+}
@@ -26,8 +26,10 @@ import javafx.geometry.Side;
 import javafx.scene.Node;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
+import net.smoofyuniverse.simplex.ui.tab.BuddhabrotPane;
 import net.smoofyuniverse.simplex.ui.tab.KochSnowflakePane;
 import net.smoofyuniverse.simplex.ui.tab.MandelbrotSetPane;
+import net.smoofyuniverse.simplex.ui.tab.NoiseMapPane;
 import net.smoofyuniverse.simplex.ui.tab.PerlinNoisePane;
 import net.smoofyuniverse.simplex.ui.tab.PythagorasTreePane;
 
@@ -35,9 +37,11 @@ public class UserInterface extends TabPane {
 
 	public UserInterface() {
 		getTabs().addAll(createTab("Perlin", new PerlinNoisePane(this)),
+				createTab("Carte", new NoiseMapPane()),
 				createTab("Koch", new KochSnowflakePane()),
 				createTab("Pythagoras", new PythagorasTreePane()),
-				createTab("Mandelbrot", new MandelbrotSetPane()));
+				createTab("Mandelbrot", new MandelbrotSetPane()),
+				createTab("Buddhabrot", new BuddhabrotPane()));
 
 		setSide(Side.BOTTOM);
 		setCache(true);
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.ui.field;
+
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.scene.control.TextField;
+
+import java.math.BigDecimal;
+
+public class BigDecimalField extends TextField {
+	private final ObjectProperty<BigDecimal> value = new SimpleObjectProperty<>(this, "value");
+	private boolean updating;
+
+	public BigDecimalField(BigDecimal value) {
+		if (value == null)
+			throw new IllegalArgumentException("value");
+
+		this.value.set(value);
+		setText(value.toPlainString());
+
+		textProperty().addListener((v, oldV, newV) -> {
+			if (this.updating)
+				return;
+
+			try {
+				BigDecimal parsed = new BigDecimal(newV.trim());
+				this.updating = true;
+				this.value.set(parsed);
+			} catch (NumberFormatException ignored) {
+			} finally {
+				this.updating = false;
+			}
+		});
+
+		this.value.addListener((v, oldV, newV) -> {
+			if (this.updating)
+				return;
+
+			this.updating = true;
+			setText(newV.toPlainString());
+			this.updating = false;
+		});
+	}
+
+	public BigDecimal getValue() {
+		return this.value.get();
+	}
+
+	public void setValue(BigDecimal value) {
+		if (value == null)
+			throw new IllegalArgumentException("value");
+		this.value.set(value);
+	}
+
+	public ObjectProperty<BigDecimal> valueProperty() {
+		return this.value;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.ui.tab;
+
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
+import net.smoofyuniverse.common.app.State;
+import net.smoofyuniverse.common.fx.field.IntegerField;
+import net.smoofyuniverse.common.fx.task.ObservableProgressTask;
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import net.smoofyuniverse.common.util.GridUtil;
+import net.smoofyuniverse.simplex.generator.Buddhabrot;
+import org.slf4j.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+public class BuddhabrotPane extends GridPane {
+	private static final Logger logger = ApplicationLogger.get(BuddhabrotPane.class);
+
+	private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	private final ExecutorService renderer = Executors.newSingleThreadExecutor();
+
+	private final ImageView view = new ImageView();
+	private final ProgressBar progressBar = new ProgressBar();
+	private final IntegerField samples = new IntegerField(1, 100000, 20);
+	private final IntegerField iterations = new IntegerField(1, 100000, 1000);
+	private final Button generateB = new Button("Générer");
+
+	private Buddhabrot buddhabrot;
+	private ObservableProgressTask task;
+
+	public BuddhabrotPane() {
+		State.SHUTDOWN.newListener(e -> {
+			this.renderer.shutdownNow();
+			this.pool.shutdown();
+		}, 0).register();
+
+		this.progressBar.setMaxWidth(Double.MAX_VALUE);
+		this.generateB.setPrefWidth(150);
+		this.generateB.setOnAction(e -> generate());
+
+		add(new StackPane(this.view), 0, 0, 4, 1);
+		add(this.progressBar, 0, 1, 4, 1);
+
+		addRow(2, new Label("Echantillons (millions):"), this.samples, new Label("Itérations:"), this.iterations);
+		addRow(3, new Label("Rendu:"), this.generateB);
+
+		getColumnConstraints().addAll(GridUtil.column(15), GridUtil.column(35), GridUtil.column(15), GridUtil.column(35));
+		getRowConstraints().addAll(GridUtil.row(Priority.ALWAYS), GridUtil.row(), GridUtil.row(), GridUtil.row());
+
+		setVgap(5);
+		setHgap(5);
+		setPadding(new Insets(10));
+	}
+
+	// Clicking again cancels the render, the samples already taken are kept so that a larger budget continues it
+	public void generate() {
+		if (this.task != null) {
+			this.task.cancel();
+			return;
+		}
+
+		long budget = this.samples.getValue() * 1_000_000L;
+		int maxIterations = this.iterations.getValue();
+
+		Buddhabrot buddhabrot = this.buddhabrot;
+		if (buddhabrot == null || buddhabrot.maxIterations != maxIterations || buddhabrot.getSamples() > budget) {
+			buddhabrot = new Buddhabrot(this.pool, -2, -1.5, 3 / 700d, 3 / 700d, 700, 700, maxIterations, System.nanoTime());
+			this.buddhabrot = buddhabrot;
+			this.view.setImage(new WritableImage(700, 700));
+		}
+		WritableImage image = (WritableImage) this.view.getImage();
+
+		ObservableProgressTask task = new ObservableProgressTask();
+		this.task = task;
+		this.generateB.setText("Annuler");
+		this.progressBar.progressProperty().bind(task.progressProperty());
+
+		Buddhabrot set = buddhabrot;
+		this.renderer.execute(() -> {
+			try {
+				// Each round gives a new array so it can be written later on the application thread
+				set.render(budget, (x, y, width, height, argb, offset, scanlineStride) -> Platform.runLater(() ->
+						image.getPixelWriter().setPixels(x, y, width, height, PixelFormat.getIntArgbPreInstance(), argb, offset, scanlineStride)), task.expect(budget - set.getSamples()));
+			} catch (Exception e) {
+				logger.error("Failed to generate the buddhabrot", e);
+			}
+
+			Platform.runLater(() -> {
+				this.task = null;
+				this.generateB.setText("Générer");
+			});
+		});
+	}
+}
@@ -22,32 +22,133 @@
 
 package net.smoofyuniverse.simplex.ui.tab;
 
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
+import javafx.application.Platform;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
-import javafx.scene.paint.Color;
+import javafx.stage.FileChooser;
+import net.smoofyuniverse.common.app.State;
+import net.smoofyuniverse.common.fx.field.IntegerField;
+import net.smoofyuniverse.common.fx.task.ObservableProgressTask;
+import net.smoofyuniverse.common.logger.ApplicationLogger;
+import net.smoofyuniverse.common.task.IncrementalListener;
+import net.smoofyuniverse.simplex.generator.SegmentRasterizer;
 import net.smoofyuniverse.simplex.util.PathHelper;
+import org.slf4j.Logger;
 import org.spongepowered.math.TrigMath;
 
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Draws the snowflake with the software rasterizer, the same drawing can be exported at a higher level and resolution.
+ */
 public class KochSnowflakePane extends StackPane {
+	private static final Logger logger = ApplicationLogger.get(KochSnowflakePane.class);
 	public static final double PI_OVER_3 = TrigMath.PI / 3;
+	public static final int SIZE = 600;
+	// Curves of this level or lower are generated between two checks of the listener
+	public static final int PROGRESS_LEVEL = 6;
 
-	private final Canvas canvas = new Canvas(600, 600);
+	private final ImageView view = new ImageView();
+	private final WritableImage image = new WritableImage(SIZE, SIZE);
+	private final IntegerField exportLevel = new IntegerField(0, 14, 12), exportSize = new IntegerField(16, 1 << 14, 8192);
+	private final Button exportB = new Button("Exporter");
+	private final ProgressBar progressBar = new ProgressBar();
+	private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	private final ExecutorService exporter = Executors.newSingleThreadExecutor();
+	private ObservableProgressTask exportTask;
 
 	public KochSnowflakePane() {
-		getChildren().add(this.canvas);
+		this.view.setImage(this.image);
 
-		GraphicsContext g = this.canvas.getGraphicsContext2D();
-		g.setFill(Color.WHITE);
-		g.fillRect(0, 0, 600, 600);
+		HBox controls = new HBox(5, new Label("Niveau d'export:"), this.exportLevel, new Label("Taille d'export:"), this.exportSize, this.exportB);
+		controls.setMaxSize(USE_PREF_SIZE, USE_PREF_SIZE);
+		this.exportB.setOnAction(e -> export());
+		this.progressBar.setVisible(false);
 
-		g.setStroke(Color.BLACK);
-		g.setLineWidth(0.1);
+		setAlignment(controls, Pos.TOP_RIGHT);
+		setAlignment(this.progressBar, Pos.BOTTOM_CENTER);
+		getChildren().addAll(this.view, controls, this.progressBar);
 
-		PathHelper h = new PathHelper(g);
-		h.currentX = 50;
-		h.currentY = 445;
-		generateKochSnowflake(h, 9, 500);
+		State.SHUTDOWN.newListener(e -> {
+			this.exporter.shutdownNow();
+			this.pool.shutdown();
+		}, 0).register();
+
+		render(9, SIZE, false, null).write((x, y, width, height, argb, offset, scanlineStride) ->
+				this.image.getPixelWriter().setPixels(x, y, width, height, PixelFormat.getIntArgbPreInstance(), argb, offset, scanlineStride));
+	}
+
+	// Line width and positions are proportional to the size.
+	// Merging short segments lightens a line thinner than a pixel, but it is needed to keep the memory low at high levels.
+	// Returns null if cancelled, the listener may be null.
+	private SegmentRasterizer render(int n, int size, boolean merge, IncrementalListener listener) {
+		double scale = size / (double) SIZE;
+		SegmentRasterizer r = new SegmentRasterizer(this.pool, size, size);
+
+		PathHelper h = new PathHelper(r);
+		if (merge)
+			h.minLength = 0.25;
+		h.lineWidth = 0.1 * scale;
+		h.currentX = 50 * scale;
+		h.currentY = 445 * scale;
+		if (listener == null)
+			generateKochSnowflake(h, n, 500 * scale);
+		else if (!generateKochSnowflake(h, n, 500 * scale, listener))
+			return null;
+		h.flush();
+		return r;
+	}
+
+	private void export() {
+		if (this.exportTask != null) {
+			this.exportTask.cancel();
+			return;
+		}
+
+		FileChooser chooser = new FileChooser();
+		chooser.setTitle("Exporter le flocon");
+		chooser.setInitialFileName("koch.png");
+		File file = chooser.showSaveDialog(getScene().getWindow());
+		if (file == null)
+			return;
+
+		int n = this.exportLevel.getValue(), size = this.exportSize.getValue();
+		if (!SegmentRasterizer.fitsInMemory(size, size)) {
+			logger.error("Not enough memory to export the snowflake at {}x{}", size, size);
+			return;
+		}
+
+		ObservableProgressTask task = new ObservableProgressTask();
+		this.exportTask = task;
+		this.exportB.setText("Annuler");
+		this.progressBar.progressProperty().bind(task.progressProperty());
+		this.progressBar.setVisible(true);
+
+		this.exporter.execute(() -> {
+			try {
+				SegmentRasterizer r = render(n, size, true, task.expect(3L << 2 * n));
+				if (r != null)
+					r.exportPng(file.toPath());
+			} catch (Exception | OutOfMemoryError e) {
+				logger.error("Failed to export the snowflake", e);
+			} finally {
+				Platform.runLater(() -> {
+					this.exportTask = null;
+					this.exportB.setText("Exporter");
+					this.progressBar.setVisible(false);
+				});
+			}
+		});
 	}
 
 	public static void generateKochSnowflake(PathHelper h, int n, double length) {
@@ -75,4 +176,38 @@ public class KochSnowflakePane extends StackPane {
 			generateKochCurve(h, n, length);
 		}
 	}
+
+	// Same as above, the listener is incremented once per segment. Returns false if cancelled.
+	public static boolean generateKochSnowflake(PathHelper h, int n, double length, IncrementalListener listener) {
+		for (int i = 0; i < 3; i++) {
+			if (!generateKochCurve(h, n, length, listener))
+				return false;
+			h.rotate(-2 * PI_OVER_3);
+		}
+		return true;
+	}
+
+	public static boolean generateKochCurve(PathHelper h, int n, double length, IncrementalListener listener) {
+		if (n <= PROGRESS_LEVEL) {
+			if (listener.isCancelled())
+				return false;
+			generateKochCurve(h, n, length);
+			listener.increment(1L << 2 * n);
+			return true;
+		}
+
+		length /= 3;
+		n--;
+
+		if (!generateKochCurve(h, n, length, listener))
+			return false;
+		h.rotate(PI_OVER_3);
+		if (!generateKochCurve(h, n, length, listener))
+			return false;
+		h.rotate(-2 * PI_OVER_3);
+		if (!generateKochCurve(h, n, length, listener))
+			return false;
+		h.rotate(PI_OVER_3);
+		return generateKochCurve(h, n, length, listener);
+	}
 }
@@ -26,65 +26,140 @@ import javafx.application.Platform;
 import javafx.beans.value.ObservableValue;
 import javafx.geometry.Insets;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
+import javafx.scene.control.TextField;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.StackPane;
-import javafx.scene.paint.Color;
+import javafx.stage.FileChooser;
+import net.smoofyuniverse.common.app.ApplicationManager;
 import net.smoofyuniverse.common.app.State;
 import net.smoofyuniverse.common.fx.field.DoubleField;
 import net.smoofyuniverse.common.fx.field.IntegerField;
 import net.smoofyuniverse.common.fx.task.ObservableProgressTask;
 import net.smoofyuniverse.common.logger.ApplicationLogger;
+import net.smoofyuniverse.common.task.IncrementalListener;
 import net.smoofyuniverse.common.task.supplier.AutoCancellingSupplier;
 import net.smoofyuniverse.common.util.GridUtil;
+import net.smoofyuniverse.simplex.generator.ArgbWriter;
+import net.smoofyuniverse.simplex.generator.BurningShip;
+import net.smoofyuniverse.simplex.generator.DeepMandelbrotSet;
+import net.smoofyuniverse.simplex.generator.EscapeTimeFractal;
+import net.smoofyuniverse.simplex.generator.IterationBuffer;
+import net.smoofyuniverse.simplex.generator.JuliaSet;
+import net.smoofyuniverse.simplex.generator.MandelbrotExporter;
 import net.smoofyuniverse.simplex.generator.MandelbrotSet;
+import net.smoofyuniverse.simplex.generator.Multibrot;
+import net.smoofyuniverse.simplex.generator.Palette;
+import net.smoofyuniverse.simplex.generator.TileCache;
+import net.smoofyuniverse.simplex.generator.TileCoordinator;
+import net.smoofyuniverse.simplex.generator.TileStore;
+import net.smoofyuniverse.simplex.ui.field.BigDecimalField;
 import org.slf4j.Logger;
 
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
 public class MandelbrotSetPane extends GridPane {
 	private static final Logger logger = ApplicationLogger.get(MandelbrotSetPane.class);
-	private final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	private static final String[] FRACTALS = {"Mandelbrot", "Julia", "Burning Ship", "Multibrot"};
+	private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	private final ExecutorService renderer = Executors.newSingleThreadExecutor(), exporter = Executors.newSingleThreadExecutor();
 	private final AutoCancellingSupplier<ObservableProgressTask> taskSupplier = new AutoCancellingSupplier<>(ObservableProgressTask::new);
 	private final ImageView view = new ImageView();
+	private WritableImage frontImage = new WritableImage(700, 700), backImage = new WritableImage(700, 700);
+	private final TileCache cache = new TileCache(64 << 20);
+	private final TileStore store = openStore();
 	private final ProgressBar progressBar = new ProgressBar();
-	private final DoubleField centerX = new DoubleField(-0.75), centerY = new DoubleField(0);
+	private final BigDecimalField centerX = new BigDecimalField(BigDecimal.valueOf(-0.75)), centerY = new BigDecimalField(BigDecimal.ZERO);
 	private final DoubleField scale = new DoubleField(0, 0.1, 0.005);
 	private final IntegerField iterations = new IntegerField(1, 50000, 100);
-	private final IntegerField blocks = new IntegerField(1, Integer.MAX_VALUE, 100);
-	private final Button colorModeB = new Button("Linéaire");
-	private int colorMode = 0;
+	private final IntegerField blocks = new IntegerField(0, Integer.MAX_VALUE, 0);
+	private final IntegerField antialiasGrid = new IntegerField(1, 8, 1), antialiasBudget = new IntegerField(0, 700 * 700, 50000);
+	private final IntegerField exportSize = new IntegerField(700, 100000, 7000);
+	private final Button exportB = new Button("Exporter");
+	private final TextField workers = new TextField();
+	private final Button colorModeB = new Button("Linéaire"), fractalB = new Button("Mandelbrot");
+	private final CheckBox cardioidCheck = new CheckBox("Cardioïde"), periodicityCheck = new CheckBox("Périodicité"), subdivision = new CheckBox("Subdivision"), vectorized = new CheckBox("SIMD");
+	private int colorMode = 0, fractal = 0;
 	private volatile boolean zooming;
+	private double dragX, dragY;
+	private volatile Rendered last, latest;
+	private volatile Antialiased antialiased;
+	private ObservableProgressTask exportTask;
 
 	public MandelbrotSetPane() {
-		State.SHUTDOWN.newListener(e -> this.executor.shutdown(), 0).register();
+		State.SHUTDOWN.newListener(e -> {
+			this.renderer.shutdownNow();
+			this.exporter.shutdownNow();
+			this.pool.shutdown();
+			if (this.store != null)
+				this.store.close();
+		}, 0).register();
 
 		this.progressBar.setMaxWidth(Double.MAX_VALUE);
 		this.colorModeB.setPrefWidth(150);
+		this.fractalB.setPrefWidth(150);
+		this.exportB.setPrefWidth(150);
+		this.workers.setPromptText("hôte:port, hôte:port... (vide = local)");
 
 		this.view.setOnScroll(e -> {
 			double scale = this.scale.getValue();
 			if (e.getDeltaY() > 0) {
-				this.scale.setValue(scale * 0.9);
+				// Only the Mandelbrot set supports deep zoom
+				this.scale.setValue(Math.max(TileCache.snapScale(scale * 0.9), this.fractal == 0 ? DeepMandelbrotSet.MIN_SCALE : DeepMandelbrotSet.MAX_SCALE));
 			} else {
-				this.scale.setValue(Math.min(scale / 0.9, 0.1));
+				this.scale.setValue(Math.min(TileCache.snapScale(scale / 0.9), 0.1));
 			}
 		});
 
 		this.view.setOnMouseClicked(e -> {
+			if (this.zooming || !e.isStillSincePress())
+				return;
+
+			pan(Math.round(e.getX() - 350), Math.round(e.getY() - 350));
+		});
+
+		this.view.setOnMousePressed(e -> {
+			this.dragX = e.getX();
+			this.dragY = e.getY();
+		});
+
+		this.view.setOnMouseDragged(e -> {
 			if (this.zooming)
 				return;
 
-			double scale = this.scale.getValue();
-			double x = this.centerX.getValue() + (e.getX() - 350) * scale, y = this.centerY.getValue() + (e.getY() - 350) * scale;
+			long dx = Math.round(e.getX() - this.dragX), dy = Math.round(e.getY() - this.dragY);
+			if (dx == 0 && dy == 0)
+				return;
+
+			this.dragX += dx;
+			this.dragY += dy;
+			pan(-dx, -dy);
+		});
+
+		this.fractalB.setOnAction(e -> {
+			this.fractal = (this.fractal + 1) % 4;
+			this.fractalB.setText(FRACTALS[this.fractal]);
+			this.last = null;
+			this.latest = null;
 
-			this.centerX.setValue(x);
-			this.centerY.setValue(y);
+			this.scale.setValue(0.005);
+			this.centerX.setValue(BigDecimal.valueOf(this.fractal == 0 ? -0.75 : this.fractal == 2 ? -0.5 : 0));
+			this.centerY.setValue(BigDecimal.valueOf(this.fractal == 2 ? -0.5 : 0));
+			generate();
 		});
 
 		this.colorModeB.setOnAction(e -> {
@@ -102,26 +177,47 @@ public class MandelbrotSetPane extends GridPane {
 					this.colorModeB.setText("Linéaire");
 					break;
 			}
-			generate();
+			generate(true);
 		});
 
 		this.centerX.valueProperty().addListener(this::update);
 		this.centerY.valueProperty().addListener(this::update);
+		this.exportB.setOnAction(e -> export());
+
 		this.scale.valueProperty().addListener((v, oldV, newV) -> {
+			this.exportB.setDisable(newV.doubleValue() < DeepMandelbrotSet.MAX_SCALE);
 			this.zooming = true;
 			generate();
 		});
-		this.iterations.valueProperty().addListener(this::update);
+		this.iterations.valueProperty().addListener((v, oldV, newV) -> generate(true));
+		this.antialiasGrid.valueProperty().addListener((v, oldV, newV) -> generate(true));
+		this.antialiasBudget.valueProperty().addListener((v, oldV, newV) -> generate(true));
+
+		this.cardioidCheck.setSelected(true);
+		this.periodicityCheck.setSelected(true);
+		this.subdivision.setSelected(true);
+		this.vectorized.setSelected(MandelbrotSet.VECTOR_SUPPORTED);
+		this.vectorized.setDisable(!MandelbrotSet.VECTOR_SUPPORTED);
+		this.cardioidCheck.selectedProperty().addListener(this::update);
+		this.periodicityCheck.selectedProperty().addListener(this::update);
+		this.subdivision.selectedProperty().addListener(this::update);
+		this.vectorized.selectedProperty().addListener(this::update);
 
 		add(new StackPane(this.view), 0, 0, 4, 1);
 		add(this.progressBar, 0, 1, 4, 1);
 
 		addRow(2, new Label("Centre X:"), this.centerX, new Label("Centre Y:"), this.centerY);
 		addRow(3, new Label("Echelle:"), this.scale, new Label("Itérations:"), this.iterations);
-		addRow(4, new Label("Blocs:"), this.blocks, new Label("Coloration:"), this.colorModeB);
+		addRow(4, new Label("Blocs (0 = auto):"), this.blocks, new Label("Coloration:"), this.colorModeB);
+		addRow(5, new Label("Fractale:"), this.fractalB, new Label("Anticrénelage:"), new HBox(5, this.antialiasGrid, new Label("Budget:"), this.antialiasBudget));
+		add(new Label("Optimisations:"), 0, 6);
+		add(new HBox(10, this.cardioidCheck, this.periodicityCheck, this.subdivision, this.vectorized), 1, 6, 3, 1);
+		addRow(7, new Label("Taille d'export:"), this.exportSize, new Label("Image PNG:"), this.exportB);
+		add(new Label("Workers:"), 0, 8);
+		add(this.workers, 1, 8, 3, 1);
 
 		getColumnConstraints().addAll(GridUtil.column(15), GridUtil.column(35), GridUtil.column(15), GridUtil.column(35));
-		getRowConstraints().addAll(GridUtil.row(Priority.ALWAYS), GridUtil.row(), GridUtil.row(), GridUtil.row(), GridUtil.row());
+		getRowConstraints().addAll(GridUtil.row(Priority.ALWAYS), GridUtil.row(), GridUtil.row(), GridUtil.row(), GridUtil.row(), GridUtil.row(), GridUtil.row(), GridUtil.row(), GridUtil.row());
 
 		setVgap(5);
 		setHgap(5);
@@ -131,40 +227,302 @@ public class MandelbrotSetPane extends GridPane {
 	}
 
 	public void generate() {
+		generate(false);
+	}
+
+	// When only the budget or the colors changed, the last buffer is reused: its escaped points are kept and other ones are continued
+	private void generate(boolean reuse) {
 		double scale = this.scale.getValue();
 		if (scale == 0)
 			return;
 
-		MandelbrotSet set = new MandelbrotSet(this.executor, this.blocks.getValue(), this.centerX.getValue() - 350 * scale, this.centerY.getValue() - 350 * scale, scale, scale, this.iterations.getValue());
-
-		// Custom color mapping
-		if (this.colorMode == 1) {
-			for (int i = 0; i < set.maxIterations; i++)
-				set.colors[i] = Color.color(Math.sqrt(i / (double) set.maxIterations), 0, 0);
-			set.colors[set.maxIterations - 1] = Color.BLACK;
-		} else if (this.colorMode == 2) {
-			for (int i = 0; i < set.maxIterations; i++)
-				set.colors[i] = Color.color(Math.pow(i / (double) set.maxIterations, 2), 0, 0);
-			set.colors[set.maxIterations - 1] = Color.BLACK;
+		BigDecimal centerX = this.centerX.getValue(), centerY = this.centerY.getValue();
+		int maxIterations = this.iterations.getValue();
+		int grid = this.antialiasGrid.getValue(), budget = this.antialiasBudget.getValue();
+
+		// Doubles cannot represent pixels below this scale, switch to perturbation
+		if (scale < DeepMandelbrotSet.MAX_SCALE && this.fractal != 0) {
+			this.scale.setValue(DeepMandelbrotSet.MAX_SCALE);
+			return;
+		}
+		boolean cached = scale >= DeepMandelbrotSet.MAX_SCALE;
+		long originX = 0, originY = 0, tileX0 = 0, tileY0 = 0;
+		if (cached) {
+			// Pixels are aligned on the world-space grid of the scale so that tiles can be reused when panning or zooming back
+			scale = TileCache.snapScale(scale);
+			originX = Math.round(centerX.doubleValue() / scale) - 350;
+			originY = Math.round(centerY.doubleValue() / scale) - 350;
+			tileX0 = Math.floorDiv(originX, TileCache.TILE_SIZE);
+			tileY0 = Math.floorDiv(originY, TileCache.TILE_SIZE);
 		}
 
+		Rendered last = this.last;
+		// Subdivision may slightly change the result, its tiles are kept apart
+		String name = this.subdivision.isSelected() ? FRACTALS[this.fractal] : FRACTALS[this.fractal] + " exact";
+		boolean resume = reuse && last != null && last.fractal.equals(name) && last.scale == scale && last.centerX.equals(centerX) && last.centerY.equals(centerY);
+		boolean recolor = resume && maxIterations == last.buffer.maxIterations;
+
+		IterationBuffer buffer;
+		if (resume) {
+			buffer = last.buffer;
+		} else if (cached) {
+			int tilesX = (int) (Math.floorDiv(originX + 699, TileCache.TILE_SIZE) - tileX0 + 1);
+			int tilesY = (int) (Math.floorDiv(originY + 699, TileCache.TILE_SIZE) - tileY0 + 1);
+
+			buffer = new IterationBuffer(tilesX * TileCache.TILE_SIZE, tilesY * TileCache.TILE_SIZE, TileCache.TILE_SIZE, true);
+			buffer.setView((int) (originX - tileX0 * TileCache.TILE_SIZE), (int) (originY - tileY0 * TileCache.TILE_SIZE), 700, 700);
+		} else {
+			buffer = new IterationBuffer(700, 700);
+		}
+
+		EscapeTimeFractal set;
+		if (cached)
+			set = createFractal(tileX0 * TileCache.TILE_SIZE * scale, tileY0 * TileCache.TILE_SIZE * scale, scale, maxIterations);
+		else
+			set = new DeepMandelbrotSet(this.pool, this.blocks.getValue(), centerX, centerY, scale, 700, 700, maxIterations);
+
+		configure(set);
+
+		Rendered rendered = new Rendered(name, centerX, centerY, scale, tileX0, tileY0, maxIterations, buffer);
 		ObservableProgressTask task = this.taskSupplier.get();
 		Platform.runLater(() -> this.progressBar.progressProperty().bind(task.progressProperty()));
-		this.executor.execute(() -> {
+		// Renders are serialized so that only one of them writes in the back image at a time
+		this.renderer.execute(() -> {
+			if (task.isCancelled())
+				return;
+
 			try {
-				WritableImage image = set.generate(700, 700, task.expect(700 * 700));
+				if (recolor) {
+					// Only the palette changed, the counts are kept and nothing is iterated again
+					WritableImage image = this.backImage;
+					set.colorize(writer(image), buffer);
+					show(image);
+				} else if (resume) {
+					// A lower budget is only a recoloring, the counts of the buffer are then above the budget and cannot be cached
+					boolean raised = maxIterations > buffer.maxIterations;
+
+					// The counts no longer match the budget of the latest render
+					if (this.latest != null && this.latest.buffer == buffer)
+						this.latest = null;
+
+					WritableImage image = this.backImage;
+					set.resume(writer(image), buffer, task.expect(buffer.width * buffer.height));
+
+					if (task.isCancelled())
+						return;
+					show(image);
+
+					if (cached && raised) {
+						cacheTiles(rendered, maxIterations, true);
+						this.latest = rendered;
+					}
+				} else {
+					// A translation of the previous render only computes the exposed pixels, at once since they are few
+					boolean panned = cached && fill(rendered);
+					int incomplete = buffer.getIncompletePixels();
+					IncrementalListener listener = task.expect(incomplete);
+
+					// Coarse passes are displayed as soon as they are ready, then refined until full resolution
+					for (int step = incomplete == 0 || panned ? 1 : EscapeTimeFractal.COARSEST_STEP; step >= 1; step /= 2) {
+						WritableImage image = this.backImage;
+						set.generate(writer(image), buffer, step, true, listener);
+
+						if (task.isCancelled())
+							return;
+						show(image);
+					}
 
-				if (!task.isCancelled()) {
-					this.zooming = false;
-					Platform.runLater(() -> this.view.setImage(image));
+					if (cached)
+						cacheTiles(rendered, maxIterations, false);
+					this.last = rendered;
 				}
+
+				// Only the edges are supersampled, the counts of the buffer are left unchanged.
+				// When only the palette changed, the samples of the last anti-aliasing are colored again.
+				if (grid > 1) {
+					Antialiased antialiased = this.antialiased;
+					if (!recolor || antialiased == null || antialiased.buffer != buffer || antialiased.maxIterations != maxIterations
+							|| antialiased.grid != grid || antialiased.budget != budget) {
+						this.antialiased = null;
+						int[] edges = set.getEdges(buffer, budget);
+						int[] samples = set.sample(buffer, edges, grid, task.expect(edges.length));
+						if (samples == null)
+							return;
+						antialiased = new Antialiased(buffer, maxIterations, grid, budget, edges, samples);
+						this.antialiased = antialiased;
+					}
+
+					WritableImage image = this.backImage;
+					set.antialias(writer(image), buffer, antialiased.pixels, grid, antialiased.samples);
+					show(image);
+				}
+
+				this.zooming = false;
+			} catch (InterruptedException ignored) {
 			} catch (Exception e) {
 				logger.error("Failed to generate the mandelbrot set", e);
 			}
 		});
 	}
 
+	// Copies pixels of the latest render at the same scale, then tiles from the cache or from the disk
+	private boolean fill(Rendered rendered) {
+		IterationBuffer buffer = rendered.buffer;
+		Rendered latest = this.latest;
+		boolean copied = latest != null && latest.fractal.equals(rendered.fractal) && latest.scale == rendered.scale && latest.maxIterations == rendered.maxIterations
+				&& buffer.copy(latest.buffer, (int) (latest.tileX0 - rendered.tileX0) * TileCache.TILE_SIZE, (int) (latest.tileY0 - rendered.tileY0) * TileCache.TILE_SIZE);
+		this.latest = rendered;
+
+		for (int tY = 0; tY < buffer.tilesY; tY++) {
+			for (int tX = 0; tX < buffer.tilesX; tX++) {
+				TileCache.Key key = new TileCache.Key(rendered.fractal, rendered.scale, rendered.tileX0 + tX, rendered.tileY0 + tY, rendered.maxIterations);
+				int[] data = this.cache.get(key);
+				if (data == null && this.store != null && !buffer.isComplete(tX, tY)) {
+					data = this.store.get(key);
+					if (data != null)
+						this.cache.put(key, data);
+				}
+				if (data != null)
+					buffer.setTile(tX, tY, data);
+			}
+		}
+		return copied;
+	}
+
+	// Moves the center by a whole number of pixels so that the previous render can be reused
+	private void pan(long dx, long dy) {
+		double scale = this.scale.getValue();
+		if (scale >= DeepMandelbrotSet.MAX_SCALE)
+			scale = TileCache.snapScale(scale);
+		MathContext mc = DeepMandelbrotSet.getMathContext(scale);
+
+		this.centerX.setValue(this.centerX.getValue().add(new BigDecimal(dx * scale), mc));
+		this.centerY.setValue(this.centerY.getValue().add(new BigDecimal(dy * scale), mc));
+	}
+
+	private EscapeTimeFractal createFractal(double minX, double minY, double scale, int maxIterations) {
+		switch (this.fractal) {
+			case 1:
+				return new JuliaSet(this.pool, this.blocks.getValue(), minX, minY, scale, scale, maxIterations, -0.8, 0.156);
+			case 2:
+				return new BurningShip(this.pool, this.blocks.getValue(), minX, minY, scale, scale, maxIterations);
+			case 3:
+				return new Multibrot(this.pool, this.blocks.getValue(), minX, minY, scale, scale, maxIterations, 3);
+			default:
+				return new MandelbrotSet(this.pool, this.blocks.getValue(), minX, minY, scale, scale, maxIterations);
+		}
+	}
+
+	private void configure(EscapeTimeFractal fractal) {
+		fractal.subdivision = this.subdivision.isSelected();
+		if (fractal instanceof MandelbrotSet) {
+			MandelbrotSet set = (MandelbrotSet) fractal;
+			set.cardioidCheck &= this.cardioidCheck.isSelected();
+			set.periodicityCheck &= this.periodicityCheck.isSelected();
+			set.vectorized &= this.vectorized.isSelected();
+		}
+
+		fractal.palette = Palette.create(this.colorMode, fractal.maxIterations);
+	}
+
+	// The current view is rendered at a larger size and streamed to disk, clicking again cancels the export
+	private void export() {
+		if (this.exportTask != null) {
+			this.exportTask.cancel();
+			return;
+		}
+
+		double scale = this.scale.getValue();
+		if (scale < DeepMandelbrotSet.MAX_SCALE)
+			return;
+
+		FileChooser chooser = new FileChooser();
+		chooser.setTitle("Exporter l'image");
+		chooser.setInitialFileName("mandelbrot.png");
+		File file = chooser.showSaveDialog(getScene().getWindow());
+		if (file == null)
+			return;
+
+		TileCoordinator coordinator;
+		try {
+			coordinator = TileCoordinator.parse(this.workers.getText());
+		} catch (IllegalArgumentException e) {
+			logger.error("Invalid worker addresses", e);
+			return;
+		}
+
+		int size = this.exportSize.getValue();
+		double exportScale = scale * 700 / size;
+		EscapeTimeFractal set = createFractal(this.centerX.getValue().doubleValue() - size / 2d * exportScale,
+				this.centerY.getValue().doubleValue() - size / 2d * exportScale, exportScale, this.iterations.getValue());
+		configure(set);
+
+		ObservableProgressTask task = new ObservableProgressTask();
+		this.exportTask = task;
+		this.exportB.setText("Annuler");
+		this.progressBar.progressProperty().bind(task.progressProperty());
+
+		this.exporter.execute(() -> {
+			try {
+				MandelbrotExporter exporter = new MandelbrotExporter(set, size, size, 64);
+				exporter.coordinator = coordinator;
+				exporter.exportPng(file.toPath(), task.expect(2L * size * size));
+			} catch (Exception e) {
+				logger.error("Failed to export the mandelbrot set", e);
+			}
+
+			Platform.runLater(() -> {
+				this.exportTask = null;
+				this.exportB.setText("Exporter");
+			});
+		});
+	}
+
+	private void cacheTiles(Rendered rendered, int maxIterations, boolean all) {
+		IterationBuffer buffer = rendered.buffer;
+		for (int tY = 0; tY < buffer.tilesY; tY++) {
+			for (int tX = 0; tX < buffer.tilesX; tX++) {
+				if (all || !buffer.isComplete(tX, tY)) {
+					TileCache.Key key = new TileCache.Key(rendered.fractal, rendered.scale, rendered.tileX0 + tX, rendered.tileY0 + tY, maxIterations);
+					int[] data = buffer.getTile(tX, tY);
+					this.cache.put(key, data);
+					if (this.store != null)
+						this.store.put(key, data);
+					buffer.setComplete(tX, tY, true);
+				}
+			}
+		}
+	}
+
+	private static TileStore openStore() {
+		try {
+			return new TileStore(ApplicationManager.get().getWorkingDirectory().resolve("tiles"), 1L << 30);
+		} catch (Exception e) {
+			logger.error("Failed to open the tile store", e);
+			return null;
+		}
+	}
+
+	private static ArgbWriter writer(WritableImage image) {
+		PixelWriter writer = image.getPixelWriter();
+		return (x, y, width, height, argb, offset, scanlineStride) -> writer.setPixels(x, y, width, height, PixelFormat.getIntArgbPreInstance(), argb, offset, scanlineStride);
+	}
+
+	private void show(WritableImage image) throws Exception {
+		// Wait until the image is displayed before reusing the previous one
+		FutureTask<Void> swap = new FutureTask<>(() -> this.view.setImage(image), null);
+		Platform.runLater(swap);
+		swap.get();
+
+		this.backImage = this.frontImage;
+		this.frontImage = image;
+	}
+
 	private <T> void update(ObservableValue<? extends T> observable, T oldValue, T newValue) {
 		generate();
 	}
+
+	private record Rendered(String fractal, BigDecimal centerX, BigDecimal centerY, double scale, long tileX0, long tileY0, int maxIterations, IterationBuffer buffer) {}
+
+	private record Antialiased(IterationBuffer buffer, int maxIterations, int grid, int budget, int[] pixels, int[] samples) {}
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.ui.tab;
+
+import javafx.application.Platform;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.StackPane;
+import net.smoofyuniverse.common.app.State;
+import net.smoofyuniverse.simplex.generator.BatchPerlin;
+import net.smoofyuniverse.simplex.generator.NoiseMap;
+import org.spongepowered.noise.NoiseQuality;
+import org.spongepowered.noise.module.source.Perlin;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class NoiseMapPane extends StackPane {
+	public static final int SIZE = 700;
+	public static final double MIN_ZOOM = 1d / (1 << NoiseMap.MAX_LEVEL), MAX_ZOOM = 16;
+
+	private final ImageView view = new ImageView();
+	private final WritableImage image = new WritableImage(SIZE, SIZE);
+	private final int[] argb = new int[SIZE * SIZE];
+	private final Label infoL = new Label();
+	private final NoiseMap map;
+	private final AtomicBoolean redrawPending = new AtomicBoolean();
+
+	// World coordinates of the top left corner and pixels per unit
+	private double originX = -SIZE / 2d, originY = -SIZE / 2d, zoom = 1;
+	private double dragX, dragY;
+
+	public NoiseMapPane() {
+		Perlin perlin = new Perlin();
+		perlin.setSeed(2);
+		perlin.setOctaveCount(8);
+		perlin.setFrequency(0.01d);
+		perlin.setLacunarity(2d);
+		perlin.setPersistence(0.5d);
+		perlin.setNoiseQuality(NoiseQuality.STANDARD);
+
+		this.map = new NoiseMap(BatchPerlin.of(perlin), 0, Runtime.getRuntime().availableProcessors(), 128 << 20, () -> {
+			// Chunks finishing together are shown by a single redraw
+			if (this.redrawPending.compareAndSet(false, true))
+				Platform.runLater(this::redraw);
+		});
+
+		State.SHUTDOWN.newListener(e -> this.map.shutdown(), 0).register();
+
+		this.view.setImage(this.image);
+
+		this.view.setOnScroll(e -> {
+			double zoom = e.getDeltaY() > 0 ? Math.min(this.zoom / 0.9, MAX_ZOOM) : Math.max(this.zoom * 0.9, MIN_ZOOM);
+
+			// The point under the cursor stays in place
+			this.originX += e.getX() / this.zoom - e.getX() / zoom;
+			this.originY += e.getY() / this.zoom - e.getY() / zoom;
+			this.zoom = zoom;
+			redraw();
+		});
+
+		this.view.setOnMousePressed(e -> {
+			this.dragX = e.getX();
+			this.dragY = e.getY();
+		});
+
+		this.view.setOnMouseDragged(e -> {
+			this.originX -= (e.getX() - this.dragX) / this.zoom;
+			this.originY -= (e.getY() - this.dragY) / this.zoom;
+			this.dragX = e.getX();
+			this.dragY = e.getY();
+			redraw();
+		});
+
+		setAlignment(this.infoL, Pos.TOP_LEFT);
+		getChildren().addAll(this.view, this.infoL);
+
+		redraw();
+	}
+
+	private void redraw() {
+		this.redrawPending.set(false);
+		this.map.render(this.originX, this.originY, this.zoom, SIZE, SIZE, this.argb);
+		this.image.getPixelWriter().setPixels(0, 0, SIZE, SIZE, PixelFormat.getIntArgbPreInstance(), this.argb, 0, SIZE);
+
+		this.infoL.setText(String.format("Centre: %.0f, %.0f, zoom: %.4g, niveau: %d, %d tuiles en cache (%d Mo)",
+				this.originX + SIZE / 2d / this.zoom, this.originY + SIZE / 2d / this.zoom, this.zoom,
+				NoiseMap.getLevel(this.zoom), this.map.getChunkCount(), this.map.getBytes() >> 20));
+	}
+}
@@ -22,38 +22,99 @@
 
 package net.smoofyuniverse.simplex.ui.tab;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
-import javafx.scene.paint.Color;
-import net.smoofyuniverse.common.app.ApplicationManager;
+import javafx.stage.FileChooser;
+import net.smoofyuniverse.common.app.State;
+import net.smoofyuniverse.common.fx.field.IntegerField;
+import net.smoofyuniverse.common.fx.task.ObservableProgressTask;
 import net.smoofyuniverse.common.logger.ApplicationLogger;
+import net.smoofyuniverse.simplex.generator.BatchPerlin;
+import net.smoofyuniverse.simplex.generator.FrameStats;
+import net.smoofyuniverse.simplex.generator.HeightmapExporter;
+import net.smoofyuniverse.simplex.generator.NoiseGraph;
+import net.smoofyuniverse.simplex.generator.NoiseRenderer;
+import net.smoofyuniverse.simplex.generator.RowSampler;
 import net.smoofyuniverse.simplex.ui.UserInterface;
 import org.slf4j.Logger;
 import org.spongepowered.noise.NoiseQuality;
 import org.spongepowered.noise.module.source.Perlin;
 
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Animates Perlin noise along z. A thread renders the next frames ahead into a ring of buffers,
+ * they are shown in step with the pulses of JavaFX at a fixed frame rate.
+ * When the tab is hidden nothing is shown, the ring fills up and the rendering thread waits.
+ * The noise is either the Perlin module alone or a compiled graph of modules built on it.
+ * The current frame of the noise can be exported as a 16-bit heightmap of any size.
+ */
 public class PerlinNoisePane extends StackPane {
 	private static final Logger logger = ApplicationLogger.get(PerlinNoisePane.class);
+	public static final int SIZE = 400, FRAMES_AHEAD = 3;
+	public static final long FRAME_PERIOD = 70_000_000L;
 
 	private final UserInterface ui;
 	private final ImageView view = new ImageView();
+	private final WritableImage image = new WritableImage(SIZE, SIZE);
+	private final Label statsL = new Label();
+	private final Button graphB = new Button("Perlin");
+	private final IntegerField exportSize = new IntegerField(16, 1 << 16, 4096);
+	private final Button exportB = new Button("Exporter");
+	private final ProgressBar progressBar = new ProgressBar();
+	private final ExecutorService exporter = Executors.newSingleThreadExecutor();
+	private ObservableProgressTask exportTask;
 
 	private final Perlin perlin = new Perlin();
-	private double min = Double.MAX_VALUE, max = Double.MIN_VALUE;
-	private long currentTime = 0;
+	private final RowSampler perlinSampler, terrainSampler;
+	private volatile RowSampler sampler;
+	private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	private final NoiseRenderer renderer = new NoiseRenderer(this.pool, SIZE, SIZE);
+	private volatile long currentTime = 0;
+
+	// Buffers go from free to ready when rendered, and back to free when shown
+	private final BlockingQueue<int[]> free = new ArrayBlockingQueue<>(FRAMES_AHEAD), ready = new ArrayBlockingQueue<>(FRAMES_AHEAD);
+	private final FrameStats stats = new FrameStats(256);
+	private long deadline, lastReport, lastPresented;
 
 	private final Task task = new Task();
+	private final AnimationTimer timer = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			present(now);
+		}
+	};
 
 	public PerlinNoisePane(UserInterface ui) {
 		this.ui = ui;
 
+		this.view.setImage(this.image);
 		this.view.setScaleX(2);
 		this.view.setScaleY(2);
 
-		getChildren().add(this.view);
+		HBox controls = new HBox(5, this.graphB, new Label("Taille d'export:"), this.exportSize, this.exportB);
+		controls.setMaxSize(USE_PREF_SIZE, USE_PREF_SIZE);
+		this.exportB.setOnAction(e -> export());
+		this.progressBar.setVisible(false);
+
+		setAlignment(this.statsL, Pos.TOP_LEFT);
+		setAlignment(controls, Pos.TOP_RIGHT);
+		setAlignment(this.progressBar, Pos.BOTTOM_CENTER);
+		getChildren().addAll(this.view, this.statsL, controls, this.progressBar);
 
 		this.perlin.setSeed(2);
 		this.perlin.setOctaveCount(8);
@@ -61,74 +122,152 @@ public class PerlinNoisePane extends StackPane {
 		this.perlin.setLacunarity(2d);
 		this.perlin.setPersistence(0.5d);
 		this.perlin.setNoiseQuality(NoiseQuality.STANDARD);
+		this.perlinSampler = BatchPerlin.of(this.perlin);
+		this.terrainSampler = NoiseGraph.compile(NoiseGraph.terrain(this.perlin, 3));
+		this.sampler = this.perlinSampler;
+
+		this.graphB.setOnAction(e -> {
+			boolean terrain = this.sampler == this.perlinSampler;
+			this.sampler = terrain ? this.terrainSampler : this.perlinSampler;
+			this.graphB.setText(terrain ? "Terrain" : "Perlin");
+		});
+
+		for (int i = 0; i < FRAMES_AHEAD; i++)
+			this.free.add(new int[SIZE * SIZE]);
+
+		State.SHUTDOWN.newListener(e -> {
+			this.timer.stop();
+			this.task.interrupt();
+			this.exporter.shutdownNow();
+			this.pool.shutdown();
+		}, 0).register();
+
+		ui.getSelectionModel().selectedItemProperty().addListener((v, oldV, newV) -> updateSelection());
 
 		this.task.start();
+		updateSelection();
 	}
 
 	public boolean isSelected() {
 		return this.ui.isSelected(this);
 	}
 
-	private WritableImage generateImage(int width, int height) {
-		if (width <= 0 || height <= 0)
-			throw new IllegalArgumentException();
-
-		WritableImage image = new WritableImage(width, height);
-		generateImage(image.getPixelWriter(), width, height);
-		return image;
+	private void updateSelection() {
+		if (isSelected()) {
+			this.deadline = 0;
+			this.timer.start();
+		} else {
+			this.timer.stop();
+		}
 	}
 
-	private void generateImage(PixelWriter writer, int width, int height) {
-		Perlin perlin = this.perlin;
-		long t = this.currentTime;
+	// The heightmap covers the view from its top left corner at the time of the last rendered frame, a name ending with .png gives a PNG, otherwise a raw file
+	private void export() {
+		if (this.exportTask != null) {
+			this.exportTask.cancel();
+			return;
+		}
 
-		double min = this.min, max = this.max;
-		double[][] pixels = new double[width][height];
+		FileChooser chooser = new FileChooser();
+		chooser.setTitle("Exporter la carte de hauteur");
+		chooser.setInitialFileName("heightmap.png");
+		File file = chooser.showSaveDialog(getScene().getWindow());
+		if (file == null)
+			return;
 
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				double value = perlin.get(x, y, t);
+		int size = this.exportSize.getValue();
+		HeightmapExporter heightmap = new HeightmapExporter(this.pool, this.sampler, 0, 0, this.currentTime, 1, size, size);
+		boolean png = file.getName().toLowerCase().endsWith(".png");
 
-				if (value > max)
-					max = value;
-				if (value < min)
-					min = value;
+		ObservableProgressTask task = new ObservableProgressTask();
+		this.exportTask = task;
+		this.exportB.setText("Annuler");
+		this.progressBar.progressProperty().bind(task.progressProperty());
+		this.progressBar.setVisible(true);
 
-				pixels[x][y] = value;
+		this.exporter.execute(() -> {
+			try {
+				if (png)
+					heightmap.exportPng(file.toPath(), task.expect(heightmap.getWork(true)));
+				else
+					heightmap.exportRaw(file.toPath(), task.expect(heightmap.getWork(false)));
+			} catch (Exception e) {
+				logger.error("Failed to export the heightmap", e);
 			}
+
+			Platform.runLater(() -> {
+				this.exportTask = null;
+				this.exportB.setText("Exporter");
+				this.progressBar.setVisible(false);
+			});
+		});
+	}
+
+	// Called at each pulse, a frame is shown when its deadline is reached
+	private void present(long now) {
+		if (this.deadline == 0) {
+			this.deadline = now;
+			this.lastReport = now;
+			this.lastPresented = this.stats.getPresented();
 		}
 
-		double range = max - min;
-		this.min = min;
-		this.max = max;
+		if (now >= this.deadline) {
+			int[] frame = this.ready.poll();
+			if (frame == null) {
+				this.stats.drop();
+			} else {
+				this.image.getPixelWriter().setPixels(0, 0, SIZE, SIZE, PixelFormat.getIntArgbPreInstance(), frame, 0, SIZE);
+				this.free.add(frame);
+				this.stats.present();
+			}
 
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++)
-				writer.setColor(x, y, Color.gray((pixels[x][y] - min) / range));
+			// After a long pause of the pulses, the missed deadlines are not caught up
+			this.deadline += FRAME_PERIOD;
+			if (this.deadline < now)
+				this.deadline = now + FRAME_PERIOD;
+		}
+
+		if (now - this.lastReport >= 1_000_000_000L) {
+			long presented = this.stats.getPresented();
+			this.statsL.setText(String.format("%.1f i/s, %d perdues, rendu p50 %.1f ms, p95 %.1f ms, p99 %.1f ms",
+					(presented - this.lastPresented) * 1e9 / (now - this.lastReport), this.stats.getDropped(),
+					this.stats.getPercentile(0.5) / 1e6, this.stats.getPercentile(0.95) / 1e6, this.stats.getPercentile(0.99) / 1e6));
+			this.lastReport = now;
+			this.lastPresented = presented;
 		}
 	}
 
 	private class Task extends Thread {
+		Task() {
+			super("Perlin renderer");
+			setDaemon(true);
+		}
+
 		@Override
 		public void run() {
-			while (ApplicationManager.get().getState() != net.smoofyuniverse.common.app.State.SHUTDOWN) {
-				long start = System.currentTimeMillis();
+			RowSampler last = null;
+			try {
+				while (true) {
+					int[] frame = PerlinNoisePane.this.free.take();
 
-				if (isSelected()) {
-					PerlinNoisePane.this.currentTime++;
-					WritableImage image = generateImage(400, 400);
-					Platform.runLater(() -> PerlinNoisePane.this.view.setImage(image));
-				}
+					// The frames already rendered keep the previous noise
+					RowSampler sampler = PerlinNoisePane.this.sampler;
+					if (sampler != last) {
+						PerlinNoisePane.this.renderer.reset();
+						last = sampler;
+					}
 
-				long dur = System.currentTimeMillis() - start;
+					long start = System.nanoTime();
+					PerlinNoisePane.this.currentTime++;
+					PerlinNoisePane.this.renderer.render(sampler, PerlinNoisePane.this.currentTime, (x, y, width, height, argb, offset, scanlineStride) -> {
+						for (int row = 0; row < height; row++)
+							System.arraycopy(argb, offset + row * scanlineStride, frame, (y + row) * SIZE + x, width);
+					});
+					PerlinNoisePane.this.stats.record(System.nanoTime() - start);
 
-				if (dur < 70) {
-					try {
-						Thread.sleep(70 - dur);
-					} catch (InterruptedException e) {
-						logger.error("Interruption", e);
-					}
+					PerlinNoisePane.this.ready.put(frame);
 				}
+			} catch (InterruptedException ignored) {
 			}
 		}
 	}
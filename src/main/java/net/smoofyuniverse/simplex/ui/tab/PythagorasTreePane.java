@@ -22,32 +22,53 @@
 
 package net.smoofyuniverse.simplex.ui.tab;
 
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.value.ObservableValue;
 import javafx.geometry.Insets;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
+import javafx.stage.FileChooser;
+import net.smoofyuniverse.common.app.State;
+import net.smoofyuniverse.common.fx.field.IntegerField;
+import net.smoofyuniverse.common.logger.ApplicationLogger;
 import net.smoofyuniverse.common.util.GridUtil;
 import net.smoofyuniverse.simplex.generator.PythagorasTree;
+import net.smoofyuniverse.simplex.generator.SegmentRasterizer;
 import net.smoofyuniverse.simplex.util.PathHelper;
+import org.slf4j.Logger;
 import org.spongepowered.math.TrigMath;
 
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
 import static net.smoofyuniverse.simplex.generator.PythagorasTree.*;
 
 public class PythagorasTreePane extends GridPane {
-	private final Canvas canvas = new Canvas(700, 700);
+	private static final Logger logger = ApplicationLogger.get(PythagorasTreePane.class);
+	public static final int SIZE = 700;
+
+	private final Canvas canvas = new Canvas(SIZE, SIZE);
 
 	private final Slider widthFactor = new Slider(MIN_FACTOR, MAX_FACTOR, Math.sqrt(2) / 2), lengthFactor = new Slider(MIN_FACTOR, MAX_FACTOR, Math.sqrt(2) / 2);
 	private final Slider leftAngle = new Slider(MIN_ANGLE, MAX_ANGLE, 50 * TrigMath.DEG_TO_RAD), rightAngle = new Slider(MIN_ANGLE, MAX_ANGLE, 40 * TrigMath.DEG_TO_RAD);
 	private final Slider initialWidth = new Slider(1, 200, 50), initialLength = new Slider(1, 300, 140);
 	private final Slider level = new Slider(0, 18, 15);
 
+	private final IntegerField exportSize = new IntegerField(16, 1 << 14, 8192);
+	private final Button exportB = new Button("Exporter");
+	private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	private final ExecutorService exporter = Executors.newSingleThreadExecutor();
+
 	public PythagorasTreePane() {
 		Label widthFactorL = new Label(), lengthFactorL = new Label(), leftAngleL = new Label(), rightAngleL = new Label(),
 				initialWidthL = new Label(), initialLengthL = new Label(), levelL = new Label();
@@ -74,9 +95,16 @@ public class PythagorasTreePane extends GridPane {
 		addRow(2, leftAngleL, this.leftAngle, rightAngleL, this.rightAngle);
 		addRow(3, initialWidthL, this.initialWidth, initialLengthL, this.initialLength);
 		addRow(4, levelL, this.level);
+		addRow(5, new Label("Taille d'export:"), this.exportSize, this.exportB);
+
+		this.exportB.setOnAction(e -> export());
+		State.SHUTDOWN.newListener(e -> {
+			this.exporter.shutdownNow();
+			this.pool.shutdown();
+		}, 0).register();
 
 		getColumnConstraints().addAll(GridUtil.column(15), GridUtil.column(35), GridUtil.column(15), GridUtil.column(35));
-		getRowConstraints().addAll(GridUtil.row(Priority.ALWAYS), GridUtil.row(), GridUtil.row(), GridUtil.row(), GridUtil.row());
+		getRowConstraints().addAll(GridUtil.row(Priority.ALWAYS), GridUtil.row(), GridUtil.row(), GridUtil.row(), GridUtil.row(), GridUtil.row());
 
 		setVgap(5);
 		setHgap(5);
@@ -92,14 +120,52 @@ public class PythagorasTreePane extends GridPane {
 	public void generate() {
 		GraphicsContext g = this.canvas.getGraphicsContext2D();
 		g.setFill(Color.WHITE);
-		g.fillRect(0, 0, 700, 700);
+		g.fillRect(0, 0, SIZE, SIZE);
 
 		PathHelper h = new PathHelper(g);
-		h.currentX = 350;
-		h.currentY = 700;
+		h.currentX = SIZE / 2d;
+		h.currentY = SIZE;
 		h.rotate(TrigMath.THREE_PI_HALVES);
+		newTree().generate(h, (int) this.level.getValue(), this.initialWidth.getValue(), this.initialLength.getValue());
+	}
+
+	private PythagorasTree newTree() {
+		return new PythagorasTree(this.widthFactor.getValue(), this.lengthFactor.getValue(), this.leftAngle.getValue(), this.rightAngle.getValue());
+	}
 
-		new PythagorasTree(this.widthFactor.getValue(), this.lengthFactor.getValue(), this.leftAngle.getValue(), this.rightAngle.getValue())
-				.generate(h, (int) this.level.getValue(), this.initialWidth.getValue(), this.initialLength.getValue());
+	// The tree is drawn with the current values by the software rasterizer
+	private void export() {
+		FileChooser chooser = new FileChooser();
+		chooser.setTitle("Exporter l'arbre");
+		chooser.setInitialFileName("pythagoras.png");
+		File file = chooser.showSaveDialog(getScene().getWindow());
+		if (file == null)
+			return;
+
+		int size = this.exportSize.getValue(), n = (int) this.level.getValue();
+		if (!SegmentRasterizer.fitsInMemory(size, size)) {
+			logger.error("Not enough memory to export the tree at {}x{}", size, size);
+			return;
+		}
+
+		double scale = size / (double) SIZE, width = this.initialWidth.getValue() * scale, length = this.initialLength.getValue() * scale;
+		PythagorasTree tree = newTree();
+		this.exportB.setDisable(true);
+
+		this.exporter.execute(() -> {
+			try {
+				SegmentRasterizer r = new SegmentRasterizer(this.pool, size, size);
+				PathHelper h = new PathHelper(r);
+				h.currentX = SIZE / 2d * scale;
+				h.currentY = SIZE * scale;
+				h.rotate(TrigMath.THREE_PI_HALVES);
+				tree.generate(h, n, width, length);
+				r.exportPng(file.toPath());
+			} catch (Exception | OutOfMemoryError e) {
+				logger.error("Failed to export the tree", e);
+			} finally {
+				Platform.runLater(() -> this.exportB.setDisable(false));
+			}
+		});
 	}
 }
@@ -23,25 +23,72 @@
 package net.smoofyuniverse.simplex.util;
 
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import net.smoofyuniverse.simplex.generator.SegmentRasterizer;
 import org.spongepowered.math.TrigMath;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Draws paths made of straight moves. Segments are collected by style and drawn by {@link #flush()} as a few long polylines,
+ * consecutive segments of the same style forming a single line.
+ * Segments shorter than a positive minLength are merged with the next ones, this saves memory for deep fractals
+ * but lightens lines thinner than a pixel, so nothing is merged by default.
+ * Styles are drawn in the order of their first use, so segments of different styles may overlap in another order than the moves.
+ * The segments go either to a canvas or to a {@link SegmentRasterizer}, which only supports colors.
+ */
 public class PathHelper {
+	// Points per stroke call, longer polylines are split
+	public static final int MAX_POINTS = 1 << 16;
+
 	public final GraphicsContext graphics;
+	public final SegmentRasterizer rasterizer;
 
 	public double currentX, currentY;
 	public double currentDirection;
 	public boolean visible = true;
 
+	// Style of the next segments, initially the one of the graphics or a thin black line
+	public Paint stroke;
+	public double lineWidth;
+
+	// In units of the graphics, a fraction of pixel is enough to save memory
+	public double minLength = 0;
+
+	private final Map<Style, Batch> batches = new LinkedHashMap<>();
+	private Batch last;
+
 	public PathHelper(GraphicsContext graphics) {
 		this.graphics = graphics;
+		this.rasterizer = null;
+		this.stroke = graphics.getStroke();
+		this.lineWidth = graphics.getLineWidth();
+	}
+
+	public PathHelper(SegmentRasterizer rasterizer) {
+		if (rasterizer == null)
+			throw new IllegalArgumentException("rasterizer");
+		this.graphics = null;
+		this.rasterizer = rasterizer;
+		this.stroke = Color.BLACK;
+		this.lineWidth = 1;
 	}
 
 	public void move(double length, boolean draw) {
 		double newX = this.currentX + TrigMath.cos(this.currentDirection) * length,
 				newY = this.currentY + TrigMath.sin(this.currentDirection) * length;
 
-		if (draw && this.visible)
-			this.graphics.strokeLine(this.currentX, this.currentY, newX, newY);
+		if (draw && this.visible) {
+			Batch batch = this.last;
+			if (batch == null || batch.style.lineWidth != this.lineWidth || !Objects.equals(batch.style.stroke, this.stroke))
+				batch = this.batches.computeIfAbsent(new Style(this.stroke, this.lineWidth), Batch::new);
+			batch.line(this.currentX, this.currentY, newX, newY, this.minLength);
+			this.last = batch;
+		}
 
 		this.currentX = newX;
 		this.currentY = newY;
@@ -50,4 +97,120 @@ public class PathHelper {
 	public void rotate(double angle) {
 		this.currentDirection += angle;
 	}
+
+	// Draws the collected segments, the style of the graphics is restored afterwards
+	public void flush() {
+		if (this.rasterizer != null) {
+			for (Batch batch : this.batches.values())
+				batch.draw(this.rasterizer);
+			this.batches.clear();
+			this.last = null;
+			this.rasterizer.render();
+			return;
+		}
+
+		Paint stroke = this.graphics.getStroke();
+		double lineWidth = this.graphics.getLineWidth();
+
+		for (Batch batch : this.batches.values()) {
+			this.graphics.setStroke(batch.style.stroke);
+			this.graphics.setLineWidth(batch.style.lineWidth);
+			batch.draw(this.graphics);
+		}
+
+		this.graphics.setStroke(stroke);
+		this.graphics.setLineWidth(lineWidth);
+		this.batches.clear();
+		this.last = null;
+	}
+
+	private record Style(Paint stroke, double lineWidth) {
+		int getArgb() {
+			if (!(this.stroke instanceof Color c))
+				throw new IllegalStateException("The rasterizer only supports colors");
+			return (int) Math.round(c.getOpacity() * 255) << 24 | (int) Math.round(c.getRed() * 255) << 16
+					| (int) Math.round(c.getGreen() * 255) << 8 | (int) Math.round(c.getBlue() * 255);
+		}
+	}
+
+	// Points of the polylines of a style, a new polyline starts after a pair of NaN
+	private static final class Batch {
+		final Style style;
+		double[] points = new double[256];
+		int size;
+		// The end of the last segment, and whether it was merged and is not in the points yet
+		double endX = Double.NaN, endY = Double.NaN;
+		boolean merged;
+
+		Batch(Style style) {
+			this.style = style;
+		}
+
+		void line(double x0, double y0, double x1, double y1, double minLength) {
+			if (x0 != this.endX || y0 != this.endY) {
+				end();
+				add(Double.NaN, Double.NaN);
+				add(x0, y0);
+			}
+
+			double dx = x1 - this.points[this.size - 2], dy = y1 - this.points[this.size - 1];
+			this.merged = dx * dx + dy * dy < minLength * minLength;
+			if (!this.merged)
+				add(x1, y1);
+
+			this.endX = x1;
+			this.endY = y1;
+		}
+
+		void end() {
+			if (this.merged) {
+				add(this.endX, this.endY);
+				this.merged = false;
+			}
+		}
+
+		void add(double x, double y) {
+			if (this.size == this.points.length)
+				this.points = Arrays.copyOf(this.points, this.size * 2);
+			this.points[this.size++] = x;
+			this.points[this.size++] = y;
+		}
+
+		void draw(GraphicsContext g) {
+			end();
+
+			int count = 0;
+			g.beginPath();
+			for (int i = 0; i < this.size; i += 2) {
+				double x = this.points[i], y = this.points[i + 1];
+				if (Double.isNaN(x)) {
+					i += 2;
+					g.moveTo(this.points[i], this.points[i + 1]);
+				} else if (count >= MAX_POINTS) {
+					// The polyline continues in the next stroke
+					g.lineTo(x, y);
+					g.stroke();
+					g.beginPath();
+					g.moveTo(x, y);
+					count = 0;
+				} else {
+					g.lineTo(x, y);
+				}
+				count++;
+			}
+			g.stroke();
+		}
+
+		void draw(SegmentRasterizer r) {
+			end();
+
+			int color = this.style.getArgb();
+			for (int start = 2, i = 2; i <= this.size; i += 2) {
+				if (i == this.size || Double.isNaN(this.points[i])) {
+					r.addPath(this.points, start, (i - start) / 2, color, this.style.lineWidth);
+					start = i + 2;
+				}
+			}
+		}
+	}
 }
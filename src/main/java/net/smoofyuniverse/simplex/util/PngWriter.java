@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2019-2021 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.simplex.util;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG image row by row, so the whole image never has to be in memory.
+ */
+public class PngWriter implements Closeable {
+	public static final int GRAY = 0, RGB = 2;
+	private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	public final int width, height, bitDepth, colorType;
+	public final int rowBytes, pixelBytes;
+
+	private final DataOutputStream out;
+	private final DeflaterOutputStream data;
+	private final Deflater deflater;
+	private final byte[] filtered;
+	private int rows;
+
+	public PngWriter(OutputStream out, int width, int height, int bitDepth, int colorType) throws IOException {
+		if (width <= 0)
+			throw new IllegalArgumentException("width");
+		if (height <= 0)
+			throw new IllegalArgumentException("height");
+		if (bitDepth != 8 && bitDepth != 16)
+			throw new IllegalArgumentException("bitDepth");
+		if (colorType != GRAY && colorType != RGB)
+			throw new IllegalArgumentException("colorType");
+
+		this.width = width;
+		this.height = height;
+		this.bitDepth = bitDepth;
+		this.colorType = colorType;
+		this.pixelBytes = (colorType == RGB ? 3 : 1) * bitDepth / 8;
+		this.rowBytes = width * this.pixelBytes;
+		this.filtered = new byte[this.rowBytes + 1];
+
+		this.out = new DataOutputStream(out);
+		this.out.write(SIGNATURE);
+
+		byte[] header = new byte[13];
+		setInt(header, 0, width);
+		setInt(header, 4, height);
+		header[8] = (byte) bitDepth;
+		header[9] = (byte) colorType;
+		writeChunk("IHDR", header, header.length);
+
+		this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		this.data = new DeflaterOutputStream(new DataChunkStream(), this.deflater, CHUNK_SIZE);
+	}
+
+	// Each row is written with the sub filter which helps smooth images a lot for almost no cost
+	public void writeRow(byte[] row) throws IOException {
+		if (row.length < this.rowBytes)
+			throw new IllegalArgumentException("row");
+		if (this.rows == this.height)
+			throw new IllegalStateException("All rows have been written");
+
+		byte[] f = this.filtered;
+		f[0] = 1;
+		int n = this.pixelBytes;
+		System.arraycopy(row, 0, f, 1, n);
+		for (int i = n; i < this.rowBytes; i++)
+			f[i + 1] = (byte) (row[i] - row[i - n]);
+
+		this.data.write(f);
+		this.rows++;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (this.rows == this.height) {
+				this.data.finish();
+				this.data.flush();
+				writeChunk("IEND", new byte[0], 0);
+			}
+		} finally {
+			this.deflater.end();
+			this.out.close();
+		}
+	}
+
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+
+		this.out.writeInt(length);
+		this.out.write(typeBytes);
+		this.out.write(data, 0, length);
+		this.out.writeInt((int) crc.getValue());
+	}
+
+	private static void setInt(byte[] b, int offset, int value) {
+		b[offset] = (byte) (value >>> 24);
+		b[offset + 1] = (byte) (value >>> 16);
+		b[offset + 2] = (byte) (value >>> 8);
+		b[offset + 3] = (byte) value;
+	}
+
+	// Compressed data is split in IDAT chunks
+	private class DataChunkStream extends OutputStream {
+		private final byte[] buffer = new byte[CHUNK_SIZE];
+		private int size;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (this.size == this.buffer.length)
+				flushChunk();
+			this.buffer[this.size++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (this.size == this.buffer.length)
+					flushChunk();
+				int n = Math.min(len, this.buffer.length - this.size);
+				System.arraycopy(b, off, this.buffer, this.size, n);
+				this.size += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushChunk();
+		}
+
+		private void flushChunk() throws IOException {
+			if (this.size != 0) {
+				writeChunk("IDAT", this.buffer, this.size);
+				this.size = 0;
+			}
+		}
+	}
+}